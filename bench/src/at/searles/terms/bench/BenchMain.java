@@ -0,0 +1,11 @@
+package at.searles.terms.bench;
+
+/**
+ * Runs the benchmarks of this module. Arguments are passed to JMH, eg a regex to select benchmarks
+ * ("NormalizeBench.trs") or parameters ("-p sharing=0.9").
+ */
+public class BenchMain {
+	public static void main(String[] args) throws Exception {
+		org.openjdk.jmh.Main.main(args);
+	}
+}
@@ -0,0 +1,50 @@
+package at.searles.terms.bench;
+
+import at.searles.terms.Lambda;
+import at.searles.terms.Term;
+import at.searles.terms.TermList;
+import at.searles.terms.TermParserBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single beta step: the Church numeral n is applied to a term. The list is kept across
+ * invocations, hence after the first one, the reduct is found by hash-consing and the benchmark
+ * measures the walk over the body and the lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BetaBench {
+
+	@Param({"16", "256"})
+	public int n;
+
+	private Lambda numeral;
+	private Term arg;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		TermList list = new TermList();
+
+		StringBuilder sb = new StringBuilder("\\f.\\x.");
+
+		for(int i = 0; i < n; ++i) sb.append("f (");
+
+		sb.append("x");
+
+		for(int i = 0; i < n; ++i) sb.append(")");
+
+		numeral = (Lambda) TermParserBuilder.HO_BUILDER.parser(list, NormalizeBench.IS_VAR).parse(sb.toString());
+		arg = TermParserBuilder.HO_BUILDER.parser(list, NormalizeBench.IS_VAR).parse("\\y.g y y");
+	}
+
+	@Benchmark
+	public Term beta() {
+		return numeral.beta(arg);
+	}
+}
@@ -0,0 +1,366 @@
+package at.searles.terms.bench;
+
+import at.searles.terms.NormalFormCache;
+import at.searles.terms.ParallelNormalizer;
+import at.searles.terms.RewriteListener;
+import at.searles.terms.Term;
+import at.searles.terms.TermFn;
+import at.searles.terms.TermList;
+import at.searles.terms.TermParserBuilder;
+import at.searles.terms.io.MappedLineReader;
+import at.searles.terms.io.StreamingLoader;
+import at.searles.terms.rules.OutermostNeeded;
+import at.searles.terms.rules.TRS;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs all problems of a corpus directory and writes one result per problem.
+ *
+ * A corpus contains rule files name.trs or name.ctrs in the syntax of TRS.TRSParser and CTRS.CTRSParser
+ * (one or more rules per line, variables start with an upper case letter) and for each of them a file
+ * name.terms with one start term per line. Each start term is a problem. It is parsed into a fresh
+ * termlist and normalized using the selected strategy.
+ *
+ * For each problem, the wall time, the number of rewrite steps, the size of the termlist after
+ * normalization (lists only grow while normalizing, so this is the peak) and the peak heap usage are
+ * recorded. Results are written as CSV or JSON, depending on the extension of the output file.
+ *
+ * Steps are counted in the TermFn passed to the strategy, hence steps inside the conditions of a CTRS
+ * are not counted. After a timeout, the same TermFn stops the normalization in all threads, including
+ * the workers of the parallel strategy, which get a fork/join pool per problem. If a normalization does
+ * not stop in time anyway, its list size is reported as -1.
+ *
+ * If a rule file cannot be parsed, all problems of it are reported as error.
+ *
+ * Usage: CorpusRunner corpus-dir output.(csv|json) [innermost|cached|parallel|outermost] [timeout-seconds]
+ */
+public class CorpusRunner {
+
+	public static final String INNERMOST = "innermost";
+	public static final String CACHED = "cached";
+	public static final String PARALLEL = "parallel";
+	public static final String OUTERMOST = "outermost";
+
+	// how long to wait for a normalization to stop after a timeout.
+	private static final long STOP_MILLIS = 5000;
+
+	private final String strategy;
+	private final long timeoutMillis;
+
+	private final StreamingLoader loader = new StreamingLoader(NormalizeBench.IS_VAR);
+
+	private ExecutorService executor = newExecutor();
+
+	public CorpusRunner(String strategy, long timeoutMillis) {
+		if(!strategy.equals(INNERMOST) && !strategy.equals(CACHED) && !strategy.equals(PARALLEL) && !strategy.equals(OUTERMOST)) {
+			throw new IllegalArgumentException("unknown strategy " + strategy);
+		}
+
+		this.strategy = strategy;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	private static ExecutorService newExecutor() {
+		return Executors.newSingleThreadExecutor(r -> {
+			Thread th = new Thread(r, "corpus-runner");
+			th.setDaemon(true);
+			return th;
+		});
+	}
+
+	public static class Result {
+		public final String problem;
+		public final String strategy;
+		public final String status; // ok, timeout, unsupported or error
+		public final long millis;
+		public final long steps; // -1 if not counted
+		public final int listSize; // -1 if unknown
+		public final long peakHeap;
+
+		Result(String problem, String strategy, String status, long millis, long steps, int listSize, long peakHeap) {
+			this.problem = problem;
+			this.strategy = strategy;
+			this.status = status;
+			this.millis = millis;
+			this.steps = steps;
+			this.listSize = listSize;
+			this.peakHeap = peakHeap;
+		}
+	}
+
+	/**
+	 * Counts the steps of a TermFn. Since normalize calls apply for every root it tries,
+	 * this is also where a timeout stops the normalization. It uses a flag instead of
+	 * interrupts because the workers of a fork/join pool are not interrupted if a task is cancelled.
+	 */
+	private static class CountingFn implements TermFn {
+		final TermFn fn;
+		final AtomicLong steps;
+		final AtomicBoolean cancelled;
+
+		CountingFn(TermFn fn, AtomicLong steps, AtomicBoolean cancelled) {
+			this.fn = fn;
+			this.steps = steps;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public Term apply(Term t, TermList target) {
+			if(cancelled.get()) throw new CancellationException();
+
+			Term u = fn.apply(t, target);
+
+			if(u != null) steps.incrementAndGet();
+
+			return u;
+		}
+
+		@Override
+		public long version() {
+			return fn.version();
+		}
+
+		@Override
+		public void rebuilt(Term from, Term to) {
+			fn.rebuilt(from, to);
+		}
+
+		@Override
+		public RewriteListener listener() {
+			return fn.listener();
+		}
+	}
+
+	/**
+	 * Runs all problems in corpus in the order of the file names.
+	 */
+	public List<Result> run(Path corpus) throws IOException {
+		List<Path> ruleFiles = new ArrayList<>();
+
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(corpus, "*.{trs,ctrs}")) {
+			files.forEach(ruleFiles::add);
+		}
+
+		ruleFiles.sort(null);
+
+		List<Result> results = new ArrayList<>();
+
+		for(Path ruleFile : ruleFiles) {
+			String fileName = ruleFile.getFileName().toString();
+			String name = fileName.substring(0, fileName.lastIndexOf('.'));
+
+			Path termFile = ruleFile.resolveSibling(name + ".terms");
+
+			if(!Files.exists(termFile)) continue;
+
+			boolean conditional = fileName.endsWith(".ctrs");
+			TermFn fn;
+
+			try {
+				fn = conditional ? loader.loadCTRS(ruleFile) : loader.loadTRS(ruleFile);
+			} catch(IllegalArgumentException e) {
+				fn = null;
+			}
+
+			try(MappedLineReader reader = new MappedLineReader(termFile)) {
+				while(reader.hasNext()) {
+					String term = reader.next();
+					String problem = name + ":" + reader.lineNumber();
+
+					results.add(fn != null ? run(problem, fn, term) : new Result(problem, strategy, "error", 0, -1, 0, 0));
+				}
+			}
+		}
+
+		return results;
+	}
+
+	private Result run(String problem, TermFn fn, String term) {
+		if(strategy.equals(OUTERMOST) && !(fn instanceof TRS)) {
+			return new Result(problem, strategy, "unsupported", 0, -1, 0, 0);
+		}
+
+		TermList list = new TermList();
+		Term t = TermParserBuilder.FO_BUILDER.parser(list, NormalizeBench.IS_VAR).parse(term);
+
+		if(t == null) {
+			return new Result(problem, strategy, "error", 0, -1, 0, 0);
+		}
+
+		AtomicLong steps = new AtomicLong();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		TermFn counting = new CountingFn(fn, steps, cancelled);
+
+		// a pool per problem, so that it can be shut down after a timeout.
+		ForkJoinPool pool = strategy.equals(PARALLEL) ? new ForkJoinPool() : null;
+
+		CountDownLatch stopped = new CountDownLatch(1);
+
+		System.gc();
+		resetPeakHeap();
+
+		long start = System.nanoTime();
+
+		Future<Term> future = executor.submit(() -> {
+			try {
+				return normalize(t, fn, counting, pool);
+			} finally {
+				stopped.countDown();
+			}
+		});
+
+		String status;
+
+		try {
+			future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			status = "ok";
+		} catch(TimeoutException e) {
+			status = "timeout";
+		} catch(ExecutionException e) {
+			status = "error";
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			status = "error";
+		}
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		// after an error, other workers of the parallel strategy might still be running.
+		boolean isStopped = status.equals("ok") || stop(cancelled, future, stopped, pool);
+
+		if(pool != null) pool.shutdownNow();
+
+		// the list is only read if no thread modifies it anymore.
+		return new Result(problem, strategy, status, millis, steps.get(), isStopped ? list.size() : -1, peakHeap());
+	}
+
+	/**
+	 * Stops the normalization of the current problem.
+	 * @return true if all threads that worked on it have stopped.
+	 */
+	private boolean stop(AtomicBoolean cancelled, Future<Term> future, CountDownLatch stopped, ForkJoinPool pool) {
+		cancelled.set(true);
+		future.cancel(true);
+
+		if(pool != null) pool.shutdownNow();
+
+		boolean isStopped;
+
+		try {
+			isStopped = stopped.await(STOP_MILLIS, TimeUnit.MILLISECONDS)
+					&& (pool == null || pool.awaitTermination(STOP_MILLIS, TimeUnit.MILLISECONDS));
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			isStopped = false;
+		}
+
+		if(!isStopped) {
+			// eg a single step that takes very long. Do not wait for it.
+			executor.shutdownNow();
+			executor = newExecutor();
+		}
+
+		return isStopped;
+	}
+
+	private Term normalize(Term t, TermFn fn, TermFn counting, ForkJoinPool pool) {
+		switch(strategy) {
+			case CACHED:
+				// a fresh cache per problem, so that it only shares within the problem.
+				return t.normalize(counting, new NormalFormCache(1 << 16));
+			case PARALLEL:
+				return new ParallelNormalizer(pool, () -> counting, 4).normalize(t);
+			case OUTERMOST:
+				return new OutermostNeeded((TRS) fn, counting).normalize(t);
+			default:
+				return t.normalize(counting);
+		}
+	}
+
+	private static void resetPeakHeap() {
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+
+		return peak;
+	}
+
+	public static void writeCsv(List<Result> results, PrintWriter out) {
+		out.println("problem,strategy,status,millis,steps,listSize,peakHeap");
+
+		for(Result r : results) {
+			out.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%d%n",
+					r.problem, r.strategy, r.status, r.millis, r.steps, r.listSize, r.peakHeap);
+		}
+	}
+
+	public static void writeJson(List<Result> results, PrintWriter out) {
+		out.println("[");
+
+		for(int i = 0; i < results.size(); ++i) {
+			Result r = results.get(i);
+
+			out.printf(Locale.ROOT,
+					"  {\"problem\": \"%s\", \"strategy\": \"%s\", \"status\": \"%s\", \"millis\": %d, \"steps\": %d, \"listSize\": %d, \"peakHeap\": %d}%s%n",
+					escape(r.problem), r.strategy, r.status, r.millis, r.steps, r.listSize, r.peakHeap,
+					i + 1 < results.size() ? "," : "");
+		}
+
+		out.println("]");
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("usage: CorpusRunner corpus-dir output.(csv|json) [innermost|cached|parallel|outermost] [timeout-seconds]");
+			System.exit(1);
+		}
+
+		String strategy = args.length > 2 ? args[2] : INNERMOST;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 60;
+
+		List<Result> results = new CorpusRunner(strategy, TimeUnit.SECONDS.toMillis(timeout)).run(Paths.get(args[0]));
+
+		try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[1])))) {
+			if(args[1].endsWith(".json")) {
+				writeJson(results, out);
+			} else {
+				writeCsv(results, out);
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package at.searles.terms.bench;
+
+import at.searles.terms.Term;
+import at.searles.terms.TermList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash-consing: creating terms with Fun.create (ie TermList.findOrAppend) and inserting terms
+ * in which links are set into another list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreateBench {
+
+	@Param({"1000", "100000"})
+	public int size;
+
+	@Param({"16", "64"})
+	public int depth;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	private Term linked;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		TermList list = new TermList();
+
+		linked = new TermGenerator(42, sharing).generate(list, size, depth);
+
+		// link every g(x) to x, so that insert must follow links.
+		ArrayList<Term> stack = new ArrayList<>();
+		Set<Term> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		stack.add(linked);
+
+		while(!stack.isEmpty()) {
+			Term t = stack.remove(stack.size() - 1);
+
+			if(!visited.add(t)) continue;
+
+			if(t.arity() == 1) {
+				t.link = t.arg(0);
+			} else if(t.arity() == 2) {
+				stack.add(t.arg(0));
+				stack.add(t.arg(1));
+			}
+		}
+	}
+
+	@Benchmark
+	public int create() {
+		TermList list = new TermList();
+		new TermGenerator(42, sharing).generate(list, size, depth);
+		return list.size();
+	}
+
+	@Benchmark
+	public Term insertLinked() {
+		return new TermList().insert(linked);
+	}
+}
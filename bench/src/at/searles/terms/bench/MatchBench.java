@@ -0,0 +1,89 @@
+package at.searles.terms.bench;
+
+import at.searles.terms.Substitution;
+import at.searles.terms.Term;
+import at.searles.terms.TermList;
+import at.searles.terms.Trail;
+import at.searles.terms.Unifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching and unification of a pattern against a random term. The pattern is the
+ * term itself with all subterms at patternDepth replaced by variables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBench {
+
+	@Param({"1000", "100000"})
+	public int size;
+
+	@Param({"16", "64"})
+	public int depth;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	@Param({"4", "12"})
+	public int patternDepth;
+
+	private Term subject;
+
+	// pattern in its own list, for match.
+	private Term pattern;
+	private Substitution sigma;
+
+	// pattern in the list of subject, for unify.
+	private Term localPattern;
+
+	private final Trail trail = new Trail();
+	private Unifier unifier;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		TermList list = new TermList();
+		subject = new TermGenerator(42, sharing).generate(list, size, depth);
+
+		TermList patternList = new TermList();
+		pattern = TermGenerator.pattern(subject, patternList, patternDepth);
+		sigma = new Substitution(patternList);
+
+		localPattern = TermGenerator.pattern(subject, list, patternDepth);
+		unifier = new Unifier(list);
+	}
+
+	@Benchmark
+	public boolean matchTrail() {
+		boolean matches = pattern.match(subject, trail);
+		trail.clear();
+		return matches;
+	}
+
+	@Benchmark
+	public boolean matchSubstitution() {
+		boolean matches = pattern.match(subject, sigma);
+		sigma.clear();
+		return matches;
+	}
+
+	@Benchmark
+	public boolean unifyTrail() {
+		boolean unifies = localPattern.unify(subject, trail);
+		trail.clear();
+		return unifies;
+	}
+
+	@Benchmark
+	public boolean unifyUnionFind() {
+		unifier.add(localPattern, subject);
+		boolean unifies = unifier.solve();
+		unifier.clear();
+		return unifies;
+	}
+}
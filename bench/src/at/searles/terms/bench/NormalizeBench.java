@@ -0,0 +1,136 @@
+package at.searles.terms.bench;
+
+import at.searles.parsing.regex.Lexer;
+import at.searles.terms.App;
+import at.searles.terms.Lambda;
+import at.searles.terms.Term;
+import at.searles.terms.TermFn;
+import at.searles.terms.TermList;
+import at.searles.terms.TermParserBuilder;
+import at.searles.terms.rules.CTRS;
+import at.searles.terms.rules.TRS;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Normalization under a TRS (Peano arithmetic), a CTRS (division with conditional rules)
+ * and beta reduction (Church numerals). Since normalforms are remembered in the list via links,
+ * every invocation parses the term into a fresh list.
+ *
+ * n is the size of the numbers. For TRS and CTRS, the term is a sum of products of which
+ * a fraction 'sharing' are equal to the previous summand. For beta, the term is 2^n.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizeBench {
+
+	static final Function<String, Boolean> IS_VAR = s -> Character.isUpperCase(s.charAt(0));
+
+	static final String PEANO =
+			"plus(X, 0) -> X " +
+			"plus(X, s(Y)) -> s(plus(X, Y)) " +
+			"times(X, 0) -> 0 " +
+			"times(X, s(Y)) -> plus(X, times(X, Y)) ";
+
+	static final String DIVISION = PEANO +
+			"minus(s(X), s(Y)) -> minus(X, Y) " +
+			"minus(X, 0) -> X " +
+			"lt(s(X), s(Y)) -> lt(X, Y) " +
+			"lt(0, s(X)) -> true " +
+			"lt(X, 0) -> false " +
+			"div(X, Y) -> pair(0, X) <= lt(X, Y) -> true " +
+			"div(X, Y) -> pair(s(Q), R) <= lt(X, Y) -> false, div(minus(X, Y), Y) -> pair(Q, R) ";
+
+	static final TermFn BETA = new TermFn() {
+		@Override
+		public Term apply(Term t, TermList target) {
+			if(t instanceof App && t.arg(0) instanceof Lambda) {
+				return ((Lambda) t.arg(0)).beta(t.arg(1));
+			} else {
+				return null;
+			}
+		}
+	};
+
+	@Param({"8", "16"})
+	public int n;
+
+	@Param({"0.0", "0.5", "0.9"})
+	public double sharing;
+
+	private TRS trs;
+	private CTRS ctrs;
+
+	private String arithmetic;
+	private String division;
+	private String church;
+
+	// parsed in each invocation
+	private Term trsTerm;
+	private Term ctrsTerm;
+	private Term betaTerm;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		trs = new TRS.TRSParser(new Lexer(), IS_VAR).parse(PEANO);
+		ctrs = new CTRS.CTRSParser(new Lexer(), IS_VAR).parse(DIVISION);
+
+		Random random = new Random(42);
+
+		String sum = "0";
+		String summand = null;
+
+		for(int i = 0; i < 16; ++i) {
+			if(summand == null || random.nextDouble() >= sharing) {
+				int a = n / 2 + random.nextInt(n / 2 + 1);
+				int b = n / 2 + random.nextInt(n / 2 + 1);
+				summand = "times(" + TermGenerator.num(a) + ", " + TermGenerator.num(b) + ")";
+			}
+
+			sum = "plus(" + summand + ", " + sum + ")";
+		}
+
+		arithmetic = sum;
+		division = "div(times(" + TermGenerator.num(n) + ", " + TermGenerator.num(n) + "), " + TermGenerator.num(n / 2) + ")";
+
+		// (\m.\n.n m) 2 n
+		StringBuilder sb = new StringBuilder("(\\m.\\e.e m) (\\f.\\x.f (f x)) (\\f.\\x.");
+
+		for(int i = 0; i < n; ++i) sb.append("f (");
+
+		sb.append("x");
+
+		for(int i = 0; i < n; ++i) sb.append(")");
+
+		church = sb.append(")").toString();
+	}
+
+	@Setup(Level.Invocation)
+	public void parse() {
+		trsTerm = TermParserBuilder.FO_BUILDER.parser(new TermList(), IS_VAR).parse(arithmetic);
+		ctrsTerm = TermParserBuilder.FO_BUILDER.parser(new TermList(), IS_VAR).parse(division);
+		betaTerm = TermParserBuilder.HO_BUILDER.parser(new TermList(), IS_VAR).parse(church);
+	}
+
+	@Benchmark
+	public Term trs() {
+		return trsTerm.normalize(trs);
+	}
+
+	@Benchmark
+	public Term ctrs() {
+		return ctrsTerm.normalize(ctrs);
+	}
+
+	@Benchmark
+	public Term beta() {
+		return betaTerm.normalize(BETA);
+	}
+}
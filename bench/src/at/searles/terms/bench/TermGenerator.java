@@ -0,0 +1,100 @@
+package at.searles.terms.bench;
+
+import at.searles.terms.Const;
+import at.searles.terms.Fun;
+import at.searles.terms.Term;
+import at.searles.terms.TermList;
+import at.searles.terms.Var;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates first order terms with a given number of nodes, maximum depth and sharing ratio. Since
+ * termlists are hash-consed, equal subterms are always shared. Leaves are distinct constants, hence the
+ * only sharing is the one that is introduced on purpose: with probability 'sharing', the second argument
+ * of an f-node is a subterm that was generated before instead of a new one. The first argument
+ * is always new so that the term keeps growing until the size or the depth is reached.
+ */
+public class TermGenerator {
+
+	private final Random random;
+	private final double sharing;
+
+	private final ArrayList<Term> generated = new ArrayList<>();
+
+	private int budget;
+	private int leaves = 0;
+
+	public TermGenerator(long seed, double sharing) {
+		this.random = new Random(seed);
+		this.sharing = sharing;
+	}
+
+	/**
+	 * @param list
+	 * @param size number of inner nodes of the term tree (ignoring shared subterms).
+	 * @param depth maximum depth.
+	 * @return a term built from f/2, g/1 and constants.
+	 */
+	public Term generate(TermList list, int size, int depth) {
+		this.budget = size;
+		return generate(list, depth);
+	}
+
+	private Term generate(TermList list, int depth) {
+		if(depth == 0 || budget <= 0) {
+			return Const.create(list, "c" + leaves++);
+		}
+
+		budget--;
+
+		Term t;
+
+		if(random.nextInt(4) == 0) {
+			t = Fun.create(list, "g", Arrays.asList(generate(list, depth - 1)));
+		} else {
+			Term l = generate(list, depth - 1);
+			Term r = !generated.isEmpty() && random.nextDouble() < sharing
+					? generated.get(random.nextInt(generated.size()))
+					: generate(list, depth - 1);
+			t = Fun.create(list, "f", Arrays.asList(l, r));
+		}
+
+		generated.add(t);
+
+		return t;
+	}
+
+	/**
+	 * Copies t into list, replacing subterms at the given depth by variables. The result
+	 * is a pattern that matches t.
+	 */
+	public static Term pattern(Term t, TermList list, int depth) {
+		if(depth == 0) return Var.create(list, "X" + System.identityHashCode(t));
+
+		ArrayList<Term> args = new ArrayList<>(t.arity());
+
+		for(int i = 0; i < t.arity(); ++i) {
+			args.add(pattern(t.arg(i), list, depth - 1));
+		}
+
+		return t.copy(list, args);
+	}
+
+	/**
+	 * Peano numeral s^n(0)
+	 */
+	public static String num(int n) {
+		StringBuilder sb = new StringBuilder();
+
+		for(int i = 0; i < n; ++i) sb.append("s(");
+
+		sb.append("0");
+
+		for(int i = 0; i < n; ++i) sb.append(")");
+
+		return sb.toString();
+	}
+}
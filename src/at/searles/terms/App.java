@@ -18,8 +18,7 @@ public class App extends Term {
 		// fixme move this one to termlist
 		if(l.parent != list || r.parent != list) throw new IllegalArgumentException();
 		// l and r must be in list!
-		return list.findOrAppend(new App(l, r),
-				l.index > r.index ? l : r);
+		return list.findOrAppend(new App(l, r));
 	}
 
 	private final Term l;
@@ -30,6 +29,7 @@ public class App extends Term {
 
 		this.l = l;
 		this.r = r;
+		this.maxFree = Math.max(l.maxFree, r.maxFree);
 	}
 
 	@Override
@@ -54,47 +54,19 @@ public class App extends Term {
 	}
 
 	@Override
-	protected Term copyInserted(TermList target) {
-		return App.create(target, l.inserted, r.inserted);
+	protected int hash() {
+		return 31 * (31 * l.index + r.index) + 2;
 	}
 
 	@Override
-	protected boolean auxMatch(Term that) {
-		if(that instanceof App) {
-			App a = (App) that;
-			if(l.match(a.l)) {
-				if(r.match(a.r)) {
-					return true;
-				} else {
-					l.unmatch();
-					return false;
-				}
-			} else {
-				return false;
-			}
-		} else {
-			return false;
-		}
+	protected Term copyInserted(TermList target) {
+		return App.create(target, l.inserted, r.inserted);
 	}
 
 	@Override
-	protected boolean auxUnify(Term that) {
-		if(that instanceof App) {
-			App a = (App) that;
-			if(l.unify(a.l)) {
-				if(r.unify(a.r)) {
-					return true;
-				} else {
-					l.ununify();
-					a.l.ununify();
-					return false;
-				}
-			} else {
-				return false;
-			}
-		} else {
-			return false;
-		}
+	protected boolean auxMatch(Term that) {
+		// args are matched in match.
+		return that instanceof App;
 	}
 
 	@Override
@@ -0,0 +1,43 @@
+package at.searles.terms;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Integer constant that does not fit into a long. BigConst.create returns a LongConst
+ * if the value fits, hence results of arithmetic operations can be passed to it directly.
+ */
+public class BigConst extends Const<BigInteger> {
+
+	public static Term create(TermList list, BigInteger value) {
+		if(value.bitLength() < 64) {
+			return LongConst.create(list, value.longValue());
+		}
+
+		return list.findOrAppend(new BigConst(value));
+	}
+
+	private BigConst(BigInteger value) {
+		super(value);
+	}
+
+	@Override
+	public boolean eq(Term t) {
+		return t instanceof BigConst && value.equals(((BigConst) t).value);
+	}
+
+	@Override
+	protected Term copyInserted(TermList target) {
+		return target == parent ? this : BigConst.create(target, value);
+	}
+
+	@Override
+	protected boolean auxMatch(Term that) {
+		return that instanceof BigConst && value.equals(((BigConst) that).value);
+	}
+
+	@Override
+	public Term copy(TermList list, List<Term> args) {
+		return BigConst.create(list, value);
+	}
+}
@@ -1,12 +1,22 @@
 package at.searles.terms;
 
+import java.math.BigInteger;
 import java.util.LinkedList;
 import java.util.List;
 
 public class Const<T> extends Term {
 
+	/**
+	 * Integers (Integer, Long and BigInteger) are returned as LongConst or BigConst.
+	 */
 	public static <T> Term create(TermList list, T value) {
-		return list.findOrAppend(new Const<>(value), null);
+		if(value instanceof Integer || value instanceof Long) {
+			return LongConst.create(list, ((Number) value).longValue());
+		} else if(value instanceof BigInteger) {
+			return BigConst.create(list, (BigInteger) value);
+		}
+
+		return list.findOrAppend(new Const<>(value));
 	}
 
 	final T value;
@@ -26,23 +36,22 @@ public class Const<T> extends Term {
 
 	@Override
 	public boolean eq(Term t) {
-		return t instanceof Const && value.equals(((Const) t).value);
+		return t instanceof Const && value.equals(((Const) t).value());
 	}
 
 	@Override
-	protected Term copyInserted(TermList target) {
-		return target == parent ? this : Const.create(target, value);
+	protected int hash() {
+		return value.hashCode();
 	}
 
 	@Override
-	protected boolean auxMatch(Term that) {
-		return (that instanceof Const) && value.equals(((Const) that).value);
+	protected Term copyInserted(TermList target) {
+		return target == parent ? this : Const.create(target, value);
 	}
 
 	@Override
-	protected boolean auxUnify(Term that) {
-		// same as match...
-		return auxMatch(that);
+	protected boolean auxMatch(Term that) {
+		return (that instanceof Const) && value.equals(((Const) that).value());
 	}
 
 	@Override
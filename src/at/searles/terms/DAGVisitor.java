@@ -1,85 +1,66 @@
 package at.searles.terms;
 
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
- *
+ * Visitor that evaluates each node of a DAG only once. Results are stored in an array
+ * indexed by the index of the term, hence all visited terms must be in the same termlist.
  */
 public abstract class DAGVisitor<A> implements TermVisitor<A> {
-    private final TreeMap<Term, A> cache = new TreeMap<>(TermList.CMP);
+    private TermList list = null;
+    private Object[] values = new Object[16];
+    private final BitSet visited = new BitSet();
+
+    private boolean contains(Term t) {
+        if(list != t.parent) {
+            if(list != null) throw new IllegalArgumentException("visited terms must be in the same termlist");
+            list = t.parent;
+        }
+
+        return visited.get(t.index);
+    }
+
+    private A put(Term t, A value) {
+        if(t.index >= values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, t.index + 1));
+
+        values[t.index] = value;
+        visited.set(t.index);
+
+        return value;
+    }
 
+    @SuppressWarnings("unchecked")
     protected A get(Term t) {
-        return cache.get(t);
+        return contains(t) ? (A) values[t.index] : null;
     }
 
     public final A visit(Term t) {
-        if (cache.containsKey(t)) {
-            return cache.get(t);
-        } else {
-            A visited = eval(t);
-            cache.put(t, visited);
-            return visited;
-        }
+        return contains(t) ? get(t) : put(t, eval(t));
     }
 
     public final A visitFun(Fun f) {
-        if (cache.containsKey(f)) {
-            return cache.get(f);
-        } else {
-            A visited = evalFun(f);
-            cache.put(f, visited);
-            return visited;
-        }
+        return contains(f) ? get(f) : put(f, evalFun(f));
     }
 
     public final A visitConst(Const<?> c) {
-        if (cache.containsKey(c)) {
-            return cache.get(c);
-        } else {
-            A visited = evalConst(c);
-            cache.put(c, visited);
-            return visited;
-        }
+        return contains(c) ? get(c) : put(c, evalConst(c));
     }
 
     public final A visitVar(Var v) {
-        if (cache.containsKey(v)) {
-            return cache.get(v);
-        } else {
-            A visited = evalVar(v);
-            cache.put(v, visited);
-            return visited;
-        }
+        return contains(v) ? get(v) : put(v, evalVar(v));
     }
 
     public final A visitLambda(Lambda l) {
-        if (cache.containsKey(l)) {
-            return cache.get(l);
-        } else {
-            A visited = evalLambda(l);
-            cache.put(l, visited);
-            return visited;
-        }
+        return contains(l) ? get(l) : put(l, evalLambda(l));
     }
 
     public final A visitLambdaVar(LambdaVar lv) {
-        if (cache.containsKey(lv)) {
-            return cache.get(lv);
-        } else {
-            A visited = evalLambdaVar(lv);
-            cache.put(lv, visited);
-            return visited;
-        }
+        return contains(lv) ? get(lv) : put(lv, evalLambdaVar(lv));
     }
 
     public final A visitApp(App app) {
-        if (cache.containsKey(app)) {
-            return cache.get(app);
-        } else {
-            A visited = evalApp(app);
-            cache.put(app, visited);
-            return visited;
-        }
+        return contains(app) ? get(app) : put(app, evalApp(app));
     }
 
     protected A eval(Term t) {
@@ -5,7 +5,13 @@ import java.util.*;
 public class Fun extends Term {
 
 	public static Term create(TermList list, String f, List<Term> args) {
-		// insert and find maximum
+		return create(list, Signature.DEFAULT.symbol(f, args.size()), args);
+	}
+
+	public static Term create(TermList list, Symbol f, List<Term> args) {
+		if(f.arity != args.size()) throw new IllegalArgumentException("arity of " + f + " does not match");
+
+		// copy args into an array
 		Term[] tArgs = new Term[args.size()];
 
 		int i = 0;
@@ -18,16 +24,8 @@ public class Fun extends Term {
 	}
 
 
-	private static Term createUnsafe(TermList list, String f, Term[] args) {
-		// insert and find maximum
-		Term max = null;
-
-		for(int i = 0; i < args.length; ++i) {
-			Term arg = args[i];
-			if(max == null || arg.index > max.index) max = arg;
-		}
-
-		return list.findOrAppend(new Fun(f, args), max);
+	private static Term createUnsafe(TermList list, Symbol f, Term[] args) {
+		return list.findOrAppend(new Fun(f, args));
 	}
 
 	/*public static Fun cons(String f, List<Term> args) {
@@ -45,12 +43,24 @@ public class Fun extends Term {
 		return new Fun(f, tArgs, level, lambda);
 	}*/
 
-	String f;
+	final Symbol f;
 	Term[] args;
 
-	public Fun(String f, Term[] args) {
+	public Fun(Symbol f, Term[] args) {
 		this.f = f;
 		this.args = args;
+
+		for(Term arg : args) {
+			this.maxFree = Math.max(this.maxFree, arg.maxFree);
+		}
+	}
+
+	/**
+	 * Special method for fun. Returns the interned function symbol
+	 * @return
+	 */
+	public Symbol symbol() {
+		return f;
 	}
 
 	@Override
@@ -76,7 +86,7 @@ public class Fun extends Term {
 
 	@Override
 	public boolean eq(Term t) {
-		if(t instanceof Fun && f.equals(((Fun) t).f) && t.arity() == args.length) {
+		if(t instanceof Fun && f == ((Fun) t).f) {
 			for(int i = 0; i < args.length; ++i) {
 				if(args[i] != t.arg(i)) return false;
 			}
@@ -88,74 +98,27 @@ public class Fun extends Term {
 	}
 
 	@Override
-	protected boolean auxMatch(Term that) {
-		if(that instanceof Fun) {
-			Fun fun = (Fun) that;
-
-			if(f.equals(fun.f) && args.length == fun.args.length) {
-				// match args
-				for(int i = 0; i < args.length; ++i) {
-					// this is why I use an ArrayList
-					if(!args[i].match(fun.args[i])) {
-						// no match in ith argument
-						for(int k = 0; k < i; ++k) {
-							// unmatch all up to i.
-							args[k].unmatch();
-						}
-
-						return false;
-					}
-				}
-
-				return true;
-			} else {
-				// clash
-				return false;
-			}
-		} else {
-			// clash
-			return false;
+	protected int hash() {
+		int h = f.id;
+
+		for(Term arg : args) {
+			h = 31 * h + arg.index;
 		}
-	}
 
+		return h;
+	}
 
 	@Override
-	protected boolean auxUnify(Term that) {
-		if(that instanceof Fun) {
-			Fun fun = (Fun) that;
-
-			if(f.equals(fun.f) && args.length == fun.args.length) {
-				// unify args
-				for(int i = 0; i < args.length; ++i) {
-					// this is why I use an ArrayList
-					if(!args[i].unify(fun.args[i])) {
-						// no match in ith argument
-						for(int k = 0; k < i; ++k) {
-							// unmatch all up to i.
-							args[k].ununify();
-							fun.args[k].ununify();
-						}
-
-						return false;
-					}
-				}
-
-				return true;
-			} else {
-				// clash
-				return false;
-			}
-		} else {
-			// clash
-			return false;
-		}
+	protected boolean auxMatch(Term that) {
+		// args are matched in match. Symbols contain the arity.
+		return that instanceof Fun && f == ((Fun) that).f;
 	}
 
 	protected String str(LinkedList<String> vars) {
 		if(args.length == 0) {
-			return f + "()";
+			return f.name + "()";
 		} else {
-			StringBuilder sb = new StringBuilder(f).append("(").append(args[0].str(vars));
+			StringBuilder sb = new StringBuilder(f.name).append("(").append(args[0].str(vars));
 
 			for(int i = 1; i < args.length; ++i) {
 				sb.append(", ").append(args[i].str(vars));
@@ -7,21 +7,21 @@ public class Lambda extends Term {
 	public static Term create(TermList list, Term t) {
 		// if scope is different from list, then the term must be updated.
 
-		return list.findOrAppend(new Lambda(t), t);
+		return list.findOrAppend(new Lambda(t));
 	}
 
 	final Term t;
 
 	public Lambda(Term t) {
 		this.t = t;
+		this.maxFree = Math.max(-1, t.maxFree - 1);
 	}
 
 	public Term beta(Term u) {
 		// \x.t u -> ([u^1/0]t)^-1
 		// see eg http://ttic.uchicago.edu/~pl/classes/CMSC336-Winter08/lectures/lec5.pdf
-		Term uShift = u.shift(parent, 1, 0);
-		Term tSubst = t.substitute(parent, 0, uShift);
-		return tSubst.shift(parent, -1, 0);
+		// Shifting, substituting and shifting back is done in one pass.
+		return t.substituteAndLower(parent, u);
 	}
 
 	@Override
@@ -49,20 +49,30 @@ public class Lambda extends Term {
 		return t instanceof Lambda && this.t == ((Lambda) t).t;
 	}
 
+	@Override
+	protected int hash() {
+		return 31 * t.index + 7;
+	}
+
 	@Override
 	protected Term copyInserted(TermList target) {
+		return copyInserted(target, t.inserted);
+	}
+
+	/**
+	 * Creates the lambda in target for the body that was already inserted into target.
+	 * @param target
+	 * @param body
+	 * @return
+	 */
+	Term copyInserted(TermList target, Term body) {
 		// now it depends if the scope matches target.
 		if (parent != target) {
-			// First, shift lambda variables to make room for a new variable with index 0.
-			// the scope of the shifted lambda vars is target.
-			Term u = t.inserted.shift(target, 1, 0);
-
-			// now, substitute %0 in parent by new lambda variable in new scope.
-			u = u.substitute(parent, 0, LambdaVar.create(target, 0, target));
-
-			return inserted = Lambda.create(target, u);
+			// Shift lambda variables of target to make room for a new variable with index 0
+			// and substitute %0 in parent by the new lambda variable in the new scope.
+			return Lambda.create(target, body.rebind(parent));
 		} else {
-			return Lambda.create(target, t.inserted);
+			return Lambda.create(target, body);
 		}
 	}
 
@@ -73,12 +83,6 @@ public class Lambda extends Term {
 	}
 
 
-	@Override
-	protected boolean auxUnify(Term that) {
-		// this only works if terms are in some normalform (like beta-eta NF).
-		return false;
-	}
-
 	@Override
 	public Term copy(TermList list, List<Term> args) {
 		Term copy_t = args.get(0);
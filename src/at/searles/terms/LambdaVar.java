@@ -7,7 +7,7 @@ import java.util.Stack;
 public class LambdaVar extends Term {
 
 	public static LambdaVar create(TermList list, int index, TermList scope) {
-		return (LambdaVar) list.findOrAppend(new LambdaVar(index, scope), null);
+		return (LambdaVar) list.findOrAppend(new LambdaVar(index, scope));
 	}
 
 	final TermList scope;
@@ -17,6 +17,7 @@ public class LambdaVar extends Term {
 	public LambdaVar(int index, TermList scope) {
 		this.index = index;
 		this.scope = scope;
+		this.maxFree = index;
 	}
 
 	@Override
@@ -26,13 +27,12 @@ public class LambdaVar extends Term {
 	}
 
 	@Override
-	protected boolean auxMatch(Term that) {
-		// link in this must be set and point to that. But this is already checked before in match-method.
-		return false;
+	protected int hash() {
+		return 31 * index + scope.id;
 	}
 
 	@Override
-	protected boolean auxUnify(Term that) {
+	protected boolean auxMatch(Term that) {
 		// link in this must be set and point to that. But this is already checked before in match-method.
 		return false;
 	}
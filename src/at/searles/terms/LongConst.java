@@ -0,0 +1,70 @@
+package at.searles.terms;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Integer constant that fits into a long. The value is stored unboxed and
+ * hash-consing compares the primitive values. Const.create and BigConst.create
+ * return a LongConst for all integers in the range of long, hence two integer
+ * constants in a list are equal iff they are identical.
+ */
+public class LongConst extends Const<Long> {
+
+	public static Term create(TermList list, long value) {
+		return list.findOrAppend(new LongConst(value));
+	}
+
+	final long n;
+
+	private LongConst(long n) {
+		super(null);
+		this.n = n;
+	}
+
+	/**
+	 * Special method for LongConst. Returns the value without boxing it.
+	 * @return
+	 */
+	public long longValue() {
+		return n;
+	}
+
+	/**
+	 * Boxes the value. Prefer longValue.
+	 * @return
+	 */
+	@Override
+	public Long value() {
+		return n;
+	}
+
+	@Override
+	public boolean eq(Term t) {
+		return t instanceof LongConst && n == ((LongConst) t).n;
+	}
+
+	@Override
+	protected int hash() {
+		return Long.hashCode(n); // same as for Const<Long>.
+	}
+
+	@Override
+	protected Term copyInserted(TermList target) {
+		return target == parent ? this : LongConst.create(target, n);
+	}
+
+	@Override
+	protected boolean auxMatch(Term that) {
+		return that instanceof LongConst && n == ((LongConst) that).n;
+	}
+
+	@Override
+	public Term copy(TermList list, List<Term> args) {
+		return LongConst.create(list, n);
+	}
+
+	protected String str(LinkedList<String> strings) {
+		return Long.toString(n);
+	}
+}
@@ -0,0 +1,244 @@
+package at.searles.terms;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of normalforms that outlives termlists. Terms are copied into a termlist owned by
+ * the cache. Since this list is hash-consed, the copy of a term is a structural key for it. Entries
+ * are keyed by this copy and the identity and version of the TermFn, and the least recently used
+ * entry is evicted once the capacity is exceeded. Terms that are no longer used by any entry are
+ * removed from the list of the cache using TermList.compact.
+ *
+ * Terms containing lambdas are not cached because their lambda variables are relative to their termlist.
+ *
+ * A cache is passed to Term.normalize(TermFn, NormalFormCache). It can be used by several threads.
+ */
+public class NormalFormCache {
+
+	private final int capacity;
+
+	private final TermList store = new TermList();
+	private final LinkedHashMap<Key, Term> entries;
+
+	// the store is only compacted if no session is open.
+	private int openSessions = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param capacity maximum number of entries.
+	 */
+	public NormalFormCache(int capacity) {
+		if(capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+
+		this.capacity = capacity;
+
+		// access order for LRU
+		this.entries = new LinkedHashMap<Key, Term>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Term> eldest) {
+				return size() > NormalFormCache.this.capacity;
+			}
+		};
+
+		this.store.setCompactThreshold(Math.max(1024, capacity * 8));
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+
+		if(openSessions == 0) store.compact(new ArrayList<>());
+	}
+
+	/**
+	 * Opens a session for one call of normalize. The session remembers copies of terms of
+	 * the normalized list so that each term is only copied once. It must be closed afterwards.
+	 * @param fn
+	 * @return
+	 */
+	synchronized Session open(TermFn fn) {
+		openSessions++;
+		return new Session(fn);
+	}
+
+	private static class Key {
+		final TermFn fn;
+		final long version;
+		final Term term;
+
+		Key(TermFn fn, long version, Term term) {
+			this.fn = fn;
+			this.version = version;
+			this.term = term;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+
+			Key k = (Key) o;
+
+			return fn == k.fn && version == k.version && term == k.term;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(fn) + Long.hashCode(version)) + System.identityHashCode(term);
+		}
+	}
+
+	/**
+	 * Copies t to target. Lambda variables are not supported, hence no relabeling is necessary.
+	 * @param memo copies of terms that were already copied.
+	 * @return null if t contains a lambda.
+	 */
+	private static Term copy(Term t, TermList target, IdentityHashMap<Term, Term> memo) {
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(t);
+
+		ArrayList<Term> args = new ArrayList<>();
+
+		while(!stack.isEmpty()) {
+			Term u = stack.peek();
+
+			if(memo.containsKey(u)) {
+				stack.pop();
+				continue;
+			}
+
+			if(u instanceof Lambda || u instanceof LambdaVar) {
+				// do not try again.
+				memo.put(u, null);
+				return null;
+			}
+
+			boolean ready = true;
+
+			for(int i = u.arity() - 1; i >= 0; --i) {
+				if(!memo.containsKey(u.arg(i))) {
+					stack.push(u.arg(i));
+					ready = false;
+				}
+			}
+
+			if(!ready) continue;
+
+			stack.pop();
+
+			args.clear();
+
+			for(int i = 0; i < u.arity(); ++i) {
+				Term arg = memo.get(u.arg(i));
+
+				if(arg == null) {
+					// contains a lambda
+					memo.put(u, null);
+					return null;
+				}
+
+				args.add(arg);
+			}
+
+			memo.put(u, u.copy(target, args));
+		}
+
+		return memo.get(t);
+	}
+
+	class Session {
+		final TermFn fn;
+		final long version;
+
+		// copies of terms of the normalized list in the store and vice versa.
+		final IdentityHashMap<Term, Term> keys = new IdentityHashMap<>();
+		final IdentityHashMap<Term, Term> values = new IdentityHashMap<>();
+
+		Session(TermFn fn) {
+			this.fn = fn;
+			this.version = fn.version();
+		}
+
+		/**
+		 * Looks up the normalform of t. If it is found, it is inserted into the list of t
+		 * and t is linked to it.
+		 * @param t a term that is not a normalform yet.
+		 * @return the normalform or t if it is not in the cache.
+		 */
+		Term lookup(Term t) {
+			Term nf;
+
+			synchronized(NormalFormCache.this) {
+				Term key = copy(t, store, keys);
+
+				nf = key != null ? entries.get(new Key(fn, version, key)) : null;
+
+				if(nf == null) {
+					misses++;
+					return t;
+				}
+
+				hits++;
+
+				nf = copy(nf, t.parent, values);
+			}
+
+			nf.normalform = true;
+
+			if(nf != t) t.link = nf;
+
+			return nf;
+		}
+
+		/**
+		 * Stores nf as normalform of t.
+		 * @param t
+		 * @param nf a term in the same list as t.
+		 */
+		void put(Term t, Term nf) {
+			synchronized(NormalFormCache.this) {
+				Term key = copy(t, store, keys);
+
+				if(key == null) return;
+
+				Term value = copy(nf, store, keys);
+
+				if(value == null) return;
+
+				entries.put(new Key(fn, version, key), value);
+				values.put(value, nf);
+			}
+		}
+
+		void close() {
+			synchronized(NormalFormCache.this) {
+				if(--openSessions == 0) {
+					ArrayList<Term> roots = new ArrayList<>(entries.size() * 2);
+
+					for(Map.Entry<Key, Term> entry : entries.entrySet()) {
+						roots.add(entry.getKey().term);
+						roots.add(entry.getValue());
+					}
+
+					store.compactIfNeeded(roots);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package at.searles.terms;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Normalizes wide terms in parallel. If a term has at least minWidth arguments, the arguments
+ * that are not yet normalized are normalized in parallel in a fork/join pool. Since a TermList is
+ * not thread-safe, each argument is copied into its own scratch list, normalized there and afterwards
+ * merged back into the list of the term by the task that forked it. The args are then linked to their
+ * normalforms like in Term.normalize, and the root is rewritten. Narrow terms are normalized
+ * using Term.normalize.
+ *
+ * TermFns are not necessarily thread-safe, hence each thread obtains its TermFn from a supplier.
+ * TRS and CTRS do not modify their rules, so the supplier may return the same instance.
+ *
+ * Cycles are reported by a CycleException like in Term.normalize. If the cycle was detected
+ * in a forked argument, the terms in the exception are in a scratch list.
+ */
+public class ParallelNormalizer {
+
+	private final ForkJoinPool pool;
+	private final ThreadLocal<TermFn> fns;
+	private final int minWidth;
+
+	/**
+	 * @param pool pool that executes the tasks.
+	 * @param fns is called once per thread.
+	 * @param minWidth only args of terms with at least this many args are normalized in parallel.
+	 */
+	public ParallelNormalizer(ForkJoinPool pool, Supplier<TermFn> fns, int minWidth) {
+		if(minWidth < 2) throw new IllegalArgumentException("minWidth must be at least 2");
+
+		this.pool = pool;
+		this.fns = ThreadLocal.withInitial(fns);
+		this.minWidth = minWidth;
+	}
+
+	public ParallelNormalizer(Supplier<TermFn> fns) {
+		this(ForkJoinPool.commonPool(), fns, 4);
+	}
+
+	/**
+	 * Normalizes t. The normalform is in the list of t and t is linked to it, like in Term.normalize.
+	 * The list of t must not be modified by other threads during this call.
+	 * @param t
+	 * @return
+	 */
+	public Term normalize(Term t) {
+		return pool.invoke(new RootTask(t));
+	}
+
+	private Term normalizeInPlace(Term t) {
+		TermFn fn = fns.get();
+
+		t = t.resolveLinks();
+
+		while(!t.normalform) {
+			if(t.arity() < minWidth) {
+				normalizeWideSubterms(t);
+				return t.normalize(fn);
+			}
+
+			normalizeArgs(t);
+
+			Term u = t.rootStep(fn);
+
+			if(u == null) break;
+
+			t = u;
+		}
+
+		return t;
+	}
+
+	/**
+	 * Normalizes the topmost wide subterms of t. Since Term.normalize is innermost, they would
+	 * be normalized anyway before t.
+	 */
+	private void normalizeWideSubterms(Term t) {
+		IdentityHashMap<Term, Term> visited = new IdentityHashMap<>();
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+
+		stack.push(t);
+
+		while(!stack.isEmpty()) {
+			Term s = stack.pop();
+
+			for(int i = 0; i < s.arity(); ++i) {
+				Term arg = s.arg(i).resolveLinks();
+
+				if(arg.normalform || visited.containsKey(arg)) continue;
+
+				visited.put(arg, arg);
+
+				if(arg.arity() >= minWidth) {
+					normalizeInPlace(arg);
+				} else {
+					stack.push(arg);
+				}
+			}
+		}
+	}
+
+	private void normalizeArgs(Term t) {
+		ArrayList<ArgTask> tasks = new ArrayList<>(t.arity());
+		IdentityHashMap<Term, Term> forked = new IdentityHashMap<>();
+
+		for(int i = 0; i < t.arity(); ++i) {
+			Term arg = t.arg(i).resolveLinks();
+
+			if(!arg.normalform && !forked.containsKey(arg)) {
+				forked.put(arg, arg);
+				tasks.add(new ArgTask(arg));
+			}
+		}
+
+		if(tasks.size() == 1) {
+			// not worth a copy
+			normalizeInPlace(tasks.get(0).arg);
+			return;
+		}
+
+		RecursiveTask.invokeAll(tasks);
+
+		// merge results. Only this thread modifies the list of t.
+		for(ArgTask task : tasks) {
+			Term nf = transfer(task.join(), t.parent);
+
+			if(nf != task.arg) {
+				task.arg.link = nf;
+			}
+		}
+	}
+
+	/**
+	 * Copies t into target without modifying any node of the list of t. Links are followed,
+	 * normalform-flags are transferred and lambda variables that are bound in the list of t
+	 * are bound in target. If a term contains itself after following links, eg because it was
+	 * rewritten to a term that contains it, a CycleException is thrown.
+	 */
+	private static Term transfer(Term t, TermList target) {
+		IdentityHashMap<Term, Term> copies = new IdentityHashMap<>();
+
+		// terms whose args are currently copied. They are on the path from the root to
+		// the top of the stack, hence reaching one of them again is a cycle. The terms
+		// themselves cannot be marked because other threads might read them.
+		IdentityHashMap<Term, Term> pending = new IdentityHashMap<>();
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(resolve(t));
+
+		ArrayList<Term> args = new ArrayList<>();
+
+		while(!stack.isEmpty()) {
+			Term s = stack.peek();
+
+			if(copies.containsKey(s)) {
+				stack.pop();
+				continue;
+			}
+
+			boolean ready = true;
+
+			for(int i = s.arity() - 1; i >= 0; --i) {
+				Term arg = resolve(s.arg(i));
+
+				if(!copies.containsKey(arg)) {
+					if(pending.containsKey(arg)) throw new CycleException(arg);
+
+					stack.push(arg);
+					ready = false;
+				}
+			}
+
+			if(!ready) {
+				pending.put(s, s);
+				continue;
+			}
+
+			stack.pop();
+			pending.remove(s);
+
+			Term u;
+
+			if(s instanceof LambdaVar && ((LambdaVar) s).scope == s.parent) {
+				u = LambdaVar.create(target, ((LambdaVar) s).index, target);
+			} else {
+				args.clear();
+
+				for(int i = 0; i < s.arity(); ++i) {
+					args.add(copies.get(resolve(s.arg(i))));
+				}
+
+				u = s.copy(target, args);
+			}
+
+			if(s.normalform) u.normalform = true;
+
+			copies.put(s, u);
+		}
+
+		return copies.get(resolve(t));
+	}
+
+	/**
+	 * Like resolveLinks but without writing into t because other threads might read it.
+	 * A cycle of links is detected by a second pointer that moves at half the speed.
+	 */
+	private static Term resolve(Term t) {
+		Term slow = t;
+
+		while(t.link != null && t.link != t) {
+			t = t.link;
+
+			if(t.link == null || t.link == t) break;
+
+			t = t.link;
+			slow = slow.link;
+
+			if(slow == t) throw new CycleException(t);
+		}
+
+		return t;
+	}
+
+	private class RootTask extends RecursiveTask<Term> {
+		private static final long serialVersionUID = 1L;
+
+		final Term t;
+
+		RootTask(Term t) {
+			this.t = t;
+		}
+
+		@Override
+		protected Term compute() {
+			return normalizeInPlace(t);
+		}
+	}
+
+	private class ArgTask extends RecursiveTask<Term> {
+		private static final long serialVersionUID = 1L;
+
+		final Term arg;
+
+		ArgTask(Term arg) {
+			this.arg = arg;
+		}
+
+		@Override
+		protected Term compute() {
+			// returns a term in a scratch list.
+			return normalizeInPlace(transfer(arg, new TermList()));
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package at.searles.terms;
+
+/**
+ * Receives events of a normalization. A TermFn returns its listener in TermFn.listener(). If it is
+ * null (the default), no events are created at all, in particular no times are measured.
+ *
+ * Rules are identified by their index in the TermFn (eg in TRS.rules()). Listeners can be called
+ * by several threads at the same time, eg by ParallelNormalizer.
+ */
+public interface RewriteListener {
+
+	/**
+	 * A rule was tried at the root of a term.
+	 * @param fn
+	 * @param rule index of the rule in fn
+	 * @param t the term at which the rule was tried
+	 * @param fired true if the rule was applied, false if it did not match or a condition failed.
+	 * @param nanos time for matching, conditions and building the reduct.
+	 */
+	default void ruleTried(TermFn fn, int rule, Term t, boolean fired, long nanos) {
+	}
+
+	/**
+	 * A rule led to a cycle at t. fn continues with the next rule.
+	 */
+	default void cycleCaught(TermFn fn, int rule, Term t, CycleException e) {
+	}
+
+	/**
+	 * A condition of a conditional rule was evaluated.
+	 * @param condition index of the condition in the rule
+	 * @param nanos time to normalize the lhs of the condition and match it against the rhs.
+	 */
+	default void conditionEvaluated(TermFn fn, int rule, int condition, boolean satisfied, long nanos) {
+	}
+
+	/**
+	 * A call of Term.normalize started. It is followed by a call of normalized in the same thread.
+	 */
+	default void normalizeStarted(TermFn fn, Term t) {
+	}
+
+	/**
+	 * A call of Term.normalize finished.
+	 * @param nf the normalform or null if normalize threw an exception.
+	 * @param listGrowth the number of terms that were added to the list of t.
+	 */
+	default void normalized(TermFn fn, Term t, Term nf, long nanos, int listGrowth) {
+	}
+}
@@ -0,0 +1,170 @@
+package at.searles.terms;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RewriteListener that aggregates events into counters and histograms: per rule the number
+ * of attempts, applications, cycles and failed conditions, histograms of the times for rule
+ * attempts, normalize and conditions, and the growth of termlists. Counters can be updated by several threads.
+ */
+public class RewriteMetrics implements RewriteListener {
+
+	public static class RuleStats {
+		public final LongAdder tried = new LongAdder();
+		public final LongAdder fired = new LongAdder();
+		public final LongAdder cycles = new LongAdder();
+		public final LongAdder conditionsFailed = new LongAdder();
+
+		/**
+		 * @return the fraction of attempts in which the rule was applied.
+		 */
+		public double successRatio() {
+			long n = tried.sum();
+			return n == 0 ? 0 : (double) fired.sum() / n;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("tried = %d, fired = %d, cycles = %d, conditions failed = %d",
+					tried.sum(), fired.sum(), cycles.sum(), conditionsFailed.sum());
+		}
+	}
+
+	/**
+	 * Histogram of durations with buckets of powers of 2: bucket i contains values v with
+	 * 2^(i-1) <= v < 2^i.
+	 */
+	public static class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+
+		void record(long value) {
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(value, 0)));
+			count.increment();
+			sum.add(value);
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public long sum() {
+			return sum.sum();
+		}
+
+		public long bucket(int i) {
+			return buckets.get(i);
+		}
+
+		/**
+		 * @param q a value between 0 and 1
+		 * @return an upper bound of the q-quantile, ie the upper end of the bucket that contains it.
+		 */
+		public long quantile(double q) {
+			long n = count();
+			long rank = (long) Math.ceil(q * n);
+
+			for(int i = 0; i < 64; ++i) {
+				rank -= buckets.get(i);
+
+				if(rank <= 0) return i == 0 ? 0 : (1L << i) - 1;
+			}
+
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count = %d, mean = %.1f, p50 < %d, p99 < %d",
+					count(), count() == 0 ? 0. : (double) sum() / count(), quantile(0.5), quantile(0.99));
+		}
+	}
+
+	private final ConcurrentHashMap<TermFn, ConcurrentHashMap<Integer, RuleStats>> rules = new ConcurrentHashMap<>();
+
+	private final Histogram ruleNanos = new Histogram();
+	private final Histogram normalizeNanos = new Histogram();
+	private final Histogram conditionNanos = new Histogram();
+
+	private final LongAdder listGrowth = new LongAdder();
+	private final LongAccumulator maxListGrowth = new LongAccumulator(Math::max, 0);
+
+	private RuleStats stats(TermFn fn, int rule) {
+		return rules.computeIfAbsent(fn, k -> new ConcurrentHashMap<>()).computeIfAbsent(rule, k -> new RuleStats());
+	}
+
+	@Override
+	public void ruleTried(TermFn fn, int rule, Term t, boolean fired, long nanos) {
+		RuleStats stats = stats(fn, rule);
+
+		stats.tried.increment();
+
+		if(fired) stats.fired.increment();
+
+		ruleNanos.record(nanos);
+	}
+
+	@Override
+	public void cycleCaught(TermFn fn, int rule, Term t, CycleException e) {
+		stats(fn, rule).cycles.increment();
+	}
+
+	@Override
+	public void conditionEvaluated(TermFn fn, int rule, int condition, boolean satisfied, long nanos) {
+		if(!satisfied) stats(fn, rule).conditionsFailed.increment();
+
+		conditionNanos.record(nanos);
+	}
+
+	@Override
+	public void normalized(TermFn fn, Term t, Term nf, long nanos, int listGrowth) {
+		normalizeNanos.record(nanos);
+
+		this.listGrowth.add(listGrowth);
+		this.maxListGrowth.accumulate(listGrowth);
+	}
+
+	/**
+	 * @return the statistics of the rules of fn by their index.
+	 */
+	public Map<Integer, RuleStats> rules(TermFn fn) {
+		Map<Integer, RuleStats> stats = rules.get(fn);
+		return stats == null ? Collections.emptyMap() : new TreeMap<>(stats);
+	}
+
+	/**
+	 * @return the times of rule attempts, including conditions.
+	 */
+	public Histogram ruleNanos() {
+		return ruleNanos;
+	}
+
+	public Histogram normalizeNanos() {
+		return normalizeNanos;
+	}
+
+	public Histogram conditionNanos() {
+		return conditionNanos;
+	}
+
+	/**
+	 * @return the number of terms added to lists by all calls of normalize.
+	 */
+	public long listGrowth() {
+		return listGrowth.sum();
+	}
+
+	/**
+	 * @return the maximum number of terms added to a list by one call of normalize.
+	 */
+	public long maxListGrowth() {
+		return maxListGrowth.get();
+	}
+}
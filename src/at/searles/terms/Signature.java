@@ -0,0 +1,70 @@
+package at.searles.terms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Registry of all function symbols. Symbols are identified by their name and their arity,
+ * thus f/1 and f/2 are different symbols. Since all Fun-terms share this registry, comparing
+ * symbols boils down to comparing references (or ids).
+ */
+public final class Signature {
+
+	public static final Signature DEFAULT = new Signature(); // Singleton
+
+	// symbols by name. The array is indexed by the arity.
+	private final HashMap<String, Symbol[]> byName = new HashMap<>();
+
+	// symbols by id.
+	private final ArrayList<Symbol> symbols = new ArrayList<>();
+
+	private Signature() {}
+
+	/**
+	 * Returns the symbol with the given name and arity. If there is no such symbol yet,
+	 * a new one is created.
+	 * @param name
+	 * @param arity
+	 * @return
+	 */
+	public synchronized Symbol symbol(String name, int arity) {
+		Symbol[] entries = byName.get(name);
+
+		if(entries == null || entries.length <= arity) {
+			Symbol[] newEntries = new Symbol[arity + 1];
+
+			if(entries != null) {
+				System.arraycopy(entries, 0, newEntries, 0, entries.length);
+			}
+
+			byName.put(name, entries = newEntries);
+		}
+
+		Symbol sym = entries[arity];
+
+		if(sym == null) {
+			sym = new Symbol(name, arity, symbols.size());
+			symbols.add(sym);
+			entries[arity] = sym;
+		}
+
+		return sym;
+	}
+
+	/**
+	 * Returns the symbol with the given id.
+	 * @param id
+	 * @return
+	 */
+	public synchronized Symbol get(int id) {
+		return symbols.get(id);
+	}
+
+	/**
+	 * Returns the number of symbols, ie, all ids are smaller than this value.
+	 * @return
+	 */
+	public synchronized int size() {
+		return symbols.size();
+	}
+}
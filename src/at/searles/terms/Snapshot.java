@@ -0,0 +1,395 @@
+package at.searles.terms;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Binary snapshot of a termlist. Unlike toString, the DAG is written with one record per node, hence
+ * the size of a snapshot is linear in the size of the list. Since args have smaller indices
+ * than their superterms, args are written as varint distances back to the index of the
+ * node. Symbol names, variable ids and constants are written once in tables.
+ *
+ * The link and normalform fields are part of the snapshot so that a long normalization can be
+ * continued after it was loaded again. Links into other lists are not kept.
+ *
+ * Format: magic, string table, symbol table, constant table, nodes, links, roots. Snapshots are
+ * read from a mapped file, records are decoded directly from the buffer.
+ */
+public class Snapshot {
+
+	private static final int MAGIC = 0x544c5331; // TLS1
+
+	// node records. The kinds are the ones of TermStore.
+	private static final int KIND_MASK = 0x7;
+	private static final int NORMALFORM = 0x8;
+	private static final int LINK = 0x10;
+
+	// constant types
+	private static final int STRING = 0;
+	private static final int INT = 1;
+	private static final int LONG = 2;
+	private static final int DOUBLE = 3;
+	private static final int BIGINT = 4;
+	private static final int BOOLEAN = 5;
+
+	public final TermList list;
+	public final List<Term> roots;
+
+	private Snapshot(TermList list, List<Term> roots) {
+		this.list = list;
+		this.roots = Collections.unmodifiableList(roots);
+	}
+
+	/**
+	 * Writes all terms of list and the indices of roots to path.
+	 * @param list
+	 * @param roots terms of list that should be accessible after reading the snapshot.
+	 * @param path
+	 * @throws IOException
+	 */
+	public static void write(TermList list, List<Term> roots, Path path) throws IOException {
+		try(OutputStream out = Files.newOutputStream(path)) {
+			write(list, roots, out);
+		}
+	}
+
+	public static void write(TermList list, List<Term> roots, OutputStream stream) throws IOException {
+		for(Term root : roots) {
+			if(root.parent != list) throw new IllegalArgumentException(root + " is not in the list");
+		}
+
+		// tables
+		ArrayList<String> strings = new ArrayList<>();
+		HashMap<String, Integer> stringIndices = new HashMap<>();
+
+		ArrayList<Symbol> symbols = new ArrayList<>();
+		HashMap<Symbol, Integer> symbolIndices = new HashMap<>();
+
+		ArrayList<Object> constants = new ArrayList<>();
+		HashMap<Object, Integer> constIndices = new HashMap<>();
+
+		int size = list.size();
+
+		for(int i = 0; i < size; ++i) {
+			Term t = list.node(i);
+
+			if(t instanceof Fun) {
+				Symbol f = ((Fun) t).f;
+
+				if(!symbolIndices.containsKey(f)) {
+					symbolIndices.put(f, symbols.size());
+					symbols.add(f);
+					intern(f.name, strings, stringIndices);
+				}
+			} else if(t instanceof Var) {
+				intern(((Var) t).id, strings, stringIndices);
+			} else if(t instanceof Const) {
+				Object value = ((Const<?>) t).value();
+
+				if(!constIndices.containsKey(value)) {
+					constIndices.put(value, constants.size());
+					constants.add(value);
+
+					if(value instanceof String) intern((String) value, strings, stringIndices);
+				}
+			} else if(t instanceof LambdaVar) {
+				if(((LambdaVar) t).scope != list) {
+					throw new IllegalArgumentException("lambda variable " + t + " is bound in a different list");
+				}
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+		out.writeInt(MAGIC);
+
+		writeVarint(out, strings.size());
+
+		for(String s : strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		}
+
+		writeVarint(out, symbols.size());
+
+		for(Symbol f : symbols) {
+			writeVarint(out, stringIndices.get(f.name));
+			writeVarint(out, f.arity);
+		}
+
+		writeVarint(out, constants.size());
+
+		for(Object value : constants) {
+			writeConstant(out, value, stringIndices);
+		}
+
+		writeVarint(out, size);
+
+		for(int i = 0; i < size; ++i) {
+			Term t = list.node(i);
+
+			int flags = 0;
+
+			if(t.normalform) flags |= NORMALFORM;
+			if(t.link != null && t.link != t && t.link.parent == list) flags |= LINK;
+
+			if(t instanceof Fun) {
+				out.writeByte(TermStore.FUN | flags);
+				writeVarint(out, symbolIndices.get(((Fun) t).f));
+			} else if(t instanceof App) {
+				out.writeByte(TermStore.APP | flags);
+			} else if(t instanceof Lambda) {
+				out.writeByte(TermStore.LAMBDA | flags);
+			} else if(t instanceof Var) {
+				out.writeByte(TermStore.VAR | flags);
+				writeVarint(out, stringIndices.get(((Var) t).id));
+			} else if(t instanceof Const) {
+				out.writeByte(TermStore.CONST | flags);
+				writeVarint(out, constIndices.get(((Const<?>) t).value()));
+			} else if(t instanceof LambdaVar) {
+				out.writeByte(TermStore.LAMBDAVAR | flags);
+				writeVarint(out, ((LambdaVar) t).index);
+			} else {
+				throw new IllegalArgumentException("cannot write " + t.getClass());
+			}
+
+			for(int k = 0; k < t.arity(); ++k) {
+				writeVarint(out, i - t.arg(k).index);
+			}
+		}
+
+		for(int i = 0; i < size; ++i) {
+			Term t = list.node(i);
+
+			if(t.link != null && t.link != t && t.link.parent == list) {
+				writeVarint(out, t.link.index);
+			}
+		}
+
+		writeVarint(out, roots.size());
+
+		for(Term root : roots) {
+			writeVarint(out, root.index);
+		}
+
+		out.flush();
+	}
+
+	private static void intern(String s, ArrayList<String> strings, HashMap<String, Integer> indices) {
+		if(!indices.containsKey(s)) {
+			indices.put(s, strings.size());
+			strings.add(s);
+		}
+	}
+
+	private static void writeConstant(DataOutputStream out, Object value, HashMap<String, Integer> stringIndices) throws IOException {
+		if(value instanceof String) {
+			out.writeByte(STRING);
+			writeVarint(out, stringIndices.get(value));
+		} else if(value instanceof Integer) {
+			out.writeByte(INT);
+			writeVarlong(out, zigzag((Integer) value));
+		} else if(value instanceof Long) {
+			out.writeByte(LONG);
+			writeVarlong(out, zigzag((Long) value));
+		} else if(value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if(value instanceof BigInteger) {
+			byte[] bytes = ((BigInteger) value).toByteArray();
+			out.writeByte(BIGINT);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		} else if(value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeByte((Boolean) value ? 1 : 0);
+		} else {
+			throw new IllegalArgumentException("cannot write constant of " + value.getClass());
+		}
+	}
+
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	private static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, int n) throws IOException {
+		writeVarlong(out, n & 0xffffffffL);
+	}
+
+	private static void writeVarlong(DataOutputStream out, long n) throws IOException {
+		while((n & ~0x7fL) != 0) {
+			out.writeByte((int) (n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+
+		out.writeByte((int) n);
+	}
+
+	private static long readVarlong(ByteBuffer in) {
+		long n = 0;
+
+		for(int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			n |= (long) (b & 0x7f) << shift;
+
+			if(b >= 0) return n;
+		}
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		return (int) readVarlong(in);
+	}
+
+	/**
+	 * Maps the file at path and creates a new termlist from it.
+	 * @param path
+	 * @return the snapshot with the new list and its roots.
+	 * @throws IOException
+	 */
+	public static Snapshot read(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buffer);
+		}
+	}
+
+	public static Snapshot read(ByteBuffer in) throws IOException {
+		if(in.getInt() != MAGIC) throw new IOException("not a termlist snapshot");
+
+		String[] strings = new String[readVarint(in)];
+
+		for(int i = 0; i < strings.length; ++i) {
+			byte[] bytes = new byte[readVarint(in)];
+			in.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		Symbol[] symbols = new Symbol[readVarint(in)];
+
+		for(int i = 0; i < symbols.length; ++i) {
+			String name = strings[readVarint(in)];
+			symbols[i] = Signature.DEFAULT.symbol(name, readVarint(in));
+		}
+
+		Object[] constants = new Object[readVarint(in)];
+
+		for(int i = 0; i < constants.length; ++i) {
+			constants[i] = readConstant(in, strings);
+		}
+
+		TermList list = new TermList();
+
+		int size = readVarint(in);
+
+		Term[] terms = new Term[size];
+		boolean[] linked = new boolean[size];
+
+		Term[] args = new Term[16];
+
+		for(int i = 0; i < size; ++i) {
+			int kind = in.get();
+
+			Term t;
+
+			switch(kind & KIND_MASK) {
+				case TermStore.FUN: {
+					Symbol f = symbols[readVarint(in)];
+
+					if(args.length < f.arity) args = new Term[f.arity];
+
+					for(int k = 0; k < f.arity; ++k) {
+						args[k] = terms[i - readVarint(in)];
+					}
+
+					t = Fun.create(list, f, Arrays.asList(args).subList(0, f.arity));
+				} break;
+				case TermStore.APP: {
+					Term l = terms[i - readVarint(in)];
+					Term r = terms[i - readVarint(in)];
+					t = App.create(list, l, r);
+				} break;
+				case TermStore.LAMBDA:
+					t = Lambda.create(list, terms[i - readVarint(in)]);
+					break;
+				case TermStore.VAR:
+					t = Var.create(list, strings[readVarint(in)]);
+					break;
+				case TermStore.CONST:
+					t = Const.create(list, constants[readVarint(in)]);
+					break;
+				case TermStore.LAMBDAVAR:
+					t = LambdaVar.create(list, readVarint(in), list);
+					break;
+				default:
+					throw new IOException("bad record kind " + kind);
+			}
+
+			if(t.index != i) throw new IOException("duplicate node " + t + " in snapshot");
+
+			t.normalform = (kind & NORMALFORM) != 0;
+			linked[i] = (kind & LINK) != 0;
+
+			terms[i] = t;
+		}
+
+		for(int i = 0; i < size; ++i) {
+			if(linked[i]) {
+				terms[i].link = terms[readVarint(in)];
+			}
+		}
+
+		int rootCount = readVarint(in);
+
+		List<Term> roots = new ArrayList<>(rootCount);
+
+		for(int i = 0; i < rootCount; ++i) {
+			roots.add(terms[readVarint(in)]);
+		}
+
+		return new Snapshot(list, roots);
+	}
+
+	private static Object readConstant(ByteBuffer in, String[] strings) throws IOException {
+		int type = in.get();
+
+		switch(type) {
+			case STRING:
+				return strings[readVarint(in)];
+			case INT:
+				return (int) unzigzag(readVarlong(in));
+			case LONG:
+				return unzigzag(readVarlong(in));
+			case DOUBLE:
+				return in.getDouble();
+			case BIGINT: {
+				byte[] bytes = new byte[readVarint(in)];
+				in.get(bytes);
+				return new BigInteger(bytes);
+			}
+			case BOOLEAN:
+				return in.get() != 0;
+			default:
+				throw new IOException("bad constant type " + type);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package at.searles.terms;
+
+import java.util.Arrays;
+
+/**
+ * Bindings for the variables of one termlist, typically the list of a rule. Unlike the link-fields
+ * used by match(Term), a substitution is owned by the caller. Matching into a substitution does not
+ * modify the pattern, hence rules can be shared by any number of threads.
+ *
+ * Variables are addressed by their slot in the list, so lookups are array accesses. Bindings
+ * are recorded in order so that they can be undone up to a checkpoint obtained from size().
+ */
+public class Substitution {
+
+	private final TermList list;
+
+	private Term[] values;
+
+	// slots in the order in which they were bound.
+	private int[] bound;
+	private int size = 0;
+
+	public Substitution(TermList list) {
+		this.list = list;
+
+		int capacity = Math.max(list.varCount(), 4);
+
+		this.values = new Term[capacity];
+		this.bound = new int[capacity];
+	}
+
+	public TermList list() {
+		return list;
+	}
+
+	private void check(Var v) {
+		if(v.parent != list) throw new IllegalArgumentException("variable " + v + " is not in the list of this substitution");
+	}
+
+	/**
+	 * @param v
+	 * @return the term bound to v or null if v is not bound.
+	 */
+	public Term get(Var v) {
+		check(v);
+		return v.slot < values.length ? values[v.slot] : null;
+	}
+
+	/**
+	 * Follows the bindings of variables starting at t.
+	 * @param t
+	 * @return the first term in the chain that is not a bound variable.
+	 */
+	public Term resolve(Term t) {
+		while(t instanceof Var && t.parent == list) {
+			Term u = get((Var) t);
+
+			if(u == null) break;
+
+			t = u;
+		}
+
+		return t;
+	}
+
+	/**
+	 * Binds v to t.
+	 * @param v must not be bound yet.
+	 * @param t
+	 */
+	public void bind(Var v, Term t) {
+		check(v);
+
+		if(v.slot >= values.length) {
+			values = Arrays.copyOf(values, Math.max(values.length * 2, v.slot + 1));
+		}
+
+		if(values[v.slot] != null) throw new IllegalStateException(v + " is already bound");
+
+		if(size == bound.length) {
+			bound = Arrays.copyOf(bound, size * 2);
+		}
+
+		values[v.slot] = t;
+		bound[size++] = v.slot;
+	}
+
+	/**
+	 * @return the number of bound variables. It can be used as checkpoint for undo.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all bindings that were added after the checkpoint was taken.
+	 * @param checkpoint a value returned by size()
+	 */
+	public void undo(int checkpoint) {
+		while(size > checkpoint) {
+			values[bound[--size]] = null;
+		}
+	}
+
+	public void clear() {
+		undo(0);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+
+		for(Term t = list.node(0); t != null; t = t.next) {
+			if(t instanceof Var && get((Var) t) != null) {
+				if(sb.length() > 1) sb.append(", ");
+				sb.append(t).append(" -> ").append(get((Var) t));
+			}
+		}
+
+		return sb.append("}").toString();
+	}
+}
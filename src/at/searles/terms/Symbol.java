@@ -0,0 +1,29 @@
+package at.searles.terms;
+
+/**
+ * A function symbol together with its arity. Symbols are interned in a Signature,
+ * hence two symbols are equal iff they are identical. The id is dense and can be used
+ * to index arrays.
+ */
+public final class Symbol {
+
+	public final String name;
+	public final int arity;
+	public final int id;
+
+	Symbol(String name, int arity, int id) {
+		this.name = name;
+		this.arity = arity;
+		this.id = id;
+	}
+
+	@Override
+	public int hashCode() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return name + "/" + arity;
+	}
+}
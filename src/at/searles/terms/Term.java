@@ -26,6 +26,40 @@ public abstract class Term extends TermList.Node {
 	 */
 	public boolean normalform = false; // if true, then it is guaranteed that no subterm has 'link' set.
 
+	/**
+	 * Maximum index of a free lambda variable in this term relative to this term, of any scope, or -1
+	 * if there is none. It is set in the constructors. Lambda variables of a subterm below d lambdas
+	 * with an index smaller than d are bound inside this term.
+	 */
+	int maxFree = -1;
+
+	// rules of a TermFn that are known not to be applicable at the root of this term.
+	private TermFn failedFn = null;
+	private long failedVersion = 0;
+	private BitSet failed = null;
+
+	/**
+	 * Returns the rules of fn that are known to fail at the root of this term. The meaning
+	 * of the indices is up to fn, eg TRS uses the indices of its rules.
+	 * @param fn
+	 * @return null if nothing is known.
+	 */
+	public BitSet failures(TermFn fn) {
+		return fn == failedFn && fn.version() == failedVersion ? failed : null;
+	}
+
+	/**
+	 * Remembers rules of fn that failed at the root of this term. Only the failures of
+	 * the last TermFn are kept.
+	 * @param fn
+	 * @param failed must not be modified afterwards.
+	 */
+	public void setFailures(TermFn fn, BitSet failed) {
+		this.failedFn = fn;
+		this.failedVersion = fn.version();
+		this.failed = failed;
+	}
+
 	@Override
 	public String toString() {
 		// Just a forward (so that various annotations can be added during testing...)
@@ -70,6 +104,13 @@ public abstract class Term extends TermList.Node {
 	 */
 	protected abstract boolean eq(Term t);
 
+	/**
+	 * Hash code that is consistent with eq. Like in eq, only the identity of the args is
+	 * considered, which is why their index is used. Used for hash-consing in TermList.
+	 * @return
+	 */
+	protected abstract int hash();
+
 
 
 	Term inserted = null;
@@ -90,37 +131,91 @@ public abstract class Term extends TermList.Node {
 	 * @return the inserted term.
 	 */
 	public Term insertInto(TermList target) {
-		if(inserted != null) return inserted;
-		else if(normalform && parent == target) return inserted = this;
-		else if(link != null) {
-			// find end
-			Term t = this;
-
-			// find last one.
-			for(t = t.link; t.link != null; t = t.link) {
-				// t.link == t is used in 'normalize' to mark terms that are currently normalized.
-				if(t.link == t) throw new CycleException(t);
+		// This uses an explicit stack instead of recursion so that deep terms can be inserted.
+		// Terms on the stack whose 'inserted' is PENDING are currently processed, hence
+		// if one of them is reached again, there is a cycle.
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+
+		stack.push(this);
+
+		while(!stack.isEmpty()) {
+			Term t = stack.peek();
+
+			if(t.inserted == PENDING) {
+				// all args (or the end of the link chain) were inserted.
+				stack.pop();
+				t.inserted = t.link != null ? t.lastLink().inserted : t.copyInserted(target);
+			} else if(t.inserted != null) {
+				// was already inserted
+				stack.pop();
+			} else if(t.normalform && t.parent == target) {
+				stack.pop();
+				t.inserted = t;
+			} else if(t.link != null) {
+				Term u = t.lastLink();
+
+				if(u.inserted == PENDING) throw new CycleException(u);
+
+				if(u.inserted != null) {
+					stack.pop();
+					t.inserted = u.inserted;
+				} else {
+					t.inserted = PENDING;
+					stack.push(u);
+				}
+			} else {
+				t.inserted = PENDING;
+
+				for(int i = t.arity() - 1; i >= 0; --i) {
+					Term arg = t.arg(i);
+
+					if(arg.inserted == PENDING) throw new CycleException(arg);
+					if(arg.inserted == null) stack.push(arg);
+				}
 			}
+		}
 
-			inserted = t.insertInto(target);
+		return inserted;
+	}
 
-			return inserted;
-		} else {
-			for(int i = 0; i < arity(); ++i) arg(i).insertInto(target);
+	/**
+	 * Follows the link-chain starting at this.link
+	 * @return the last term in the link-chain.
+	 */
+	private Term lastLink() {
+		Term t;
 
-			return inserted = copyInserted(target);
+		// find last one.
+		for(t = link; t.link != null; t = t.link) {
+			// t.link == t is used in 'normalize' to mark terms that are currently normalized.
+			if(t.link == t) throw new CycleException(t);
 		}
+
+		return t;
 	}
 
+	/**
+	 * Marker for 'inserted' in terms that are currently inserted.
+	 */
+	private static final Term PENDING = new Var("<pending>");
+
 	void uninsert() {
-		if(inserted != null) {
-			inserted = null;
+		ArrayDeque<Term> stack = new ArrayDeque<>();
 
-			for(int i = 0; i < arity(); ++i) {
-				arg(i).uninsert();
-			}
+		stack.push(this);
+
+		while(!stack.isEmpty()) {
+			Term t = stack.pop();
 
-			if(link != null) link.uninsert();
+			if(t.inserted != null) {
+				t.inserted = null;
+
+				for(int i = 0; i < t.arity(); ++i) {
+					stack.push(t.arg(i));
+				}
+
+				if(t.link != null) stack.push(t.link);
+			}
 		}
 	}
 
@@ -251,70 +346,181 @@ public abstract class Term extends TermList.Node {
      * @return
      */
 	protected Term shift(TermList scope, int shift, int cutoff) {
-		DAGVisitor<Term> visitor = new DAGVisitor<Term>() {
-			ArrayList<Term> args = null; // kind-of a singleton
+		return mapLambdaVars(cutoff, (lv, depth) -> {
+			if(lv.scope == scope && lv.index >= cutoff + depth) {
+				return LambdaVar.create(parent, lv.index + shift, parent);
+			} else {
+				return lv;
+			}
+		});
+	}
 
-			@Override
-			protected Term eval(Term t) {
-				// visit all subterms. We fetch the return value later using 'get'.
-				for(int i = 0; i < t.arity(); ++i) {
-					// recursively visit subnodes
-					t.arg(i).visit(this);
+	/**
+	 * Method for substituting lambda variables. Used mainly for beta reductions
+	 * @param scope Scope (=TermList) of lambda variable to be replaced
+	 * @param index Lambda index to be replaced
+	 * @param replacement Term to be inserted for lambda variable. The replacement must have scope of this.parent.
+	 * @return
+	 */
+	protected Term substitute(TermList scope, int index, Term replacement) {
+		// below the ith lambda, the replacement must be shifted by i.
+		ArrayList<Term> replacements = new ArrayList<>();
+		replacements.add(replacement);
+
+		return mapLambdaVars(index, (lv, depth) -> {
+			if(lv.index == index + depth && lv.scope == scope) {
+				while(replacements.size() <= depth) {
+					replacements.add(replacements.get(replacements.size() - 1).shift(parent, 1, 0));
 				}
 
-				if(t.arity() != 0) {
-					// initialize args
-					if(args == null) {
-						args = new ArrayList<>(t.arity());
-					} else {
-						args.ensureCapacity(t.arity());
-						args.clear();
-					}
-				}
+				return replacements.get(depth);
+			} else {
+				return lv;
+			}
+		});
+	}
 
-				for(int i = 0; i < t.arity(); ++i) {
-					args.add(get(t.arg(i)));
+	/**
+	 * Computes ([replacement^1/0]this)^-1 in one pass, ie the body of a beta reduction
+	 * where this is the body of the lambda. Below i lambdas, the variable with index i is
+	 * replaced by the replacement shifted by i and greater indices are decremented.
+	 * @param scope Scope of lambda variables to be replaced
+	 * @param replacement Term to be inserted for the lambda variable. It must be in this.parent.
+	 * @return
+	 */
+	Term substituteAndLower(TermList scope, Term replacement) {
+		// replacement shifted by depth, created on demand.
+		ArrayList<Term> replacements = new ArrayList<>();
+		replacements.add(replacement);
+
+		return mapLambdaVars(0, (lv, depth) -> {
+			if(lv.scope != scope || lv.index < depth) {
+				return lv;
+			} else if(lv.index == depth) {
+				while(replacements.size() <= depth) replacements.add(null);
+
+				Term r = replacements.get(depth);
+
+				if(r == null) {
+					r = replacement.shift(parent, depth, 0);
+					replacements.set(depth, r);
 				}
 
-				return t.copy(parent, t.arity() == 0 ? null : args);
-			}
-
-			protected Term evalLambda(Lambda l) {
-				// call shift recursively
-				// this cannot be done in the dag
-				// fixme possible improvement is to store the dag?
-				return Lambda.create(parent, l.t.shift(scope, shift, cutoff + 1));
+				return r;
+			} else {
+				return LambdaVar.create(parent, lv.index - 1, parent);
 			}
+		});
+	}
 
-			protected Term evalLambdaVar(LambdaVar lv) {
-				if(lv.scope == scope && lv.index >= cutoff) {
-					return LambdaVar.create(parent, lv.index + shift, parent);
-				} else {
-					return lv;
-				}
+	/**
+	 * Used when a lambda of the list from is inserted into this.parent and this is its inserted body:
+	 * Lambda variables of this.parent are shifted by 1 to make room for the new bound variable and
+	 * the variables that were bound by the lambda (they still have scope from) now refer to it.
+	 * This is shift(parent, 1, 0) followed by substitute(from, 0, %0) in one pass.
+	 * @param from
+	 * @return
+	 */
+	Term rebind(TermList from) {
+		return mapLambdaVars(0, (lv, depth) -> {
+			if(lv.scope == parent && lv.index >= depth) {
+				return LambdaVar.create(parent, lv.index + 1, parent);
+			} else if(lv.scope == from && lv.index == depth) {
+				return LambdaVar.create(parent, depth, parent);
+			} else {
+				return lv;
 			}
-		};
+		});
+	}
 
-		return visit(visitor);
+	@FunctionalInterface
+	private interface LambdaVarFn {
+		/**
+		 * @param lv
+		 * @param depth number of lambdas between the term that is mapped and lv
+		 * @return
+		 */
+		Term apply(LambdaVar lv, int depth);
 	}
 
 	/**
-	 * Method for substituting lambda variables. Used mainly for beta reductions
-	 * @param scope Scope (=TermList) of lambda variable to be replaced
-	 * @param index Lambda index to be replaced
-	 * @param replacement Term to be inserted for lambda variable. The replacement must have scope of this.parent.
+	 * Copies this term into its own list where lambda variables are replaced using fn. This is the
+	 * common part of shift and substitute. It uses an explicit stack and caches the results
+	 * for each subterm and lambda depth, thus each subterm is only visited once per depth.
+	 * @param threshold fn must return lv for all lambda variables with an index smaller than threshold + depth.
+	 *                  Subterms without such free lambda variables are thus not visited at all.
+	 * @param fn
 	 * @return
 	 */
-	protected Term substitute(TermList scope, int index, Term replacement) {
-		DAGVisitor<Term> visitor = new DAGVisitor<Term>() {
-			ArrayList<Term> args = null; // kind-of a singleton
+	private Term mapLambdaVars(int threshold, LambdaVarFn fn) {
+		if(maxFree < threshold) return this;
 
-			@Override
-			protected Term eval(Term t) {
-				for(int i = 0; i < t.arity(); ++i) {
-					// recursively visit subnodes
-					t.arg(i).visit(this);
+		// one map per lambda depth, indexed by the index of the subterm.
+		ArrayList<TermList.IndexMap> cache = new ArrayList<>();
+
+		try {
+			return mapLambdaVars(threshold, fn, cache);
+		} finally {
+			for(TermList.IndexMap map : cache) parent.releaseMap(map);
+		}
+	}
+
+	private Term mapLambdaVars(int threshold, LambdaVarFn fn, ArrayList<TermList.IndexMap> cache) {
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		ArrayDeque<Integer> depths = new ArrayDeque<>();
+
+		stack.push(this);
+		depths.push(0);
+
+		ArrayList<Term> args = null; // kind-of a singleton
+
+		while(!stack.isEmpty()) {
+			Term t = stack.peek();
+			int depth = depths.peek();
+
+			while(cache.size() <= depth + 1) cache.add(parent.acquireMap());
+
+			TermList.IndexMap current = cache.get(depth);
+
+			if(current.contains(t)) {
+				stack.pop();
+				depths.pop();
+				continue;
+			}
+
+			if(t.maxFree < threshold + depth) {
+				// closed for fn, hence it is not modified.
+				stack.pop();
+				depths.pop();
+				current.put(t, t);
+				continue;
+			}
+
+			if(t instanceof LambdaVar) {
+				stack.pop();
+				depths.pop();
+				current.put(t, fn.apply((LambdaVar) t, depth));
+				continue;
+			}
+
+			// args of lambdas are one level deeper.
+			int argDepth = t instanceof Lambda ? depth + 1 : depth;
+			TermList.IndexMap argCache = cache.get(argDepth);
+
+			boolean ready = true;
+
+			for(int i = t.arity() - 1; i >= 0; --i) {
+				if(!argCache.contains(t.arg(i))) {
+					stack.push(t.arg(i));
+					depths.push(argDepth);
+					ready = false;
 				}
+			}
+
+			if(ready) {
+				stack.pop();
+				depths.pop();
 
 				if(t.arity() != 0) {
 					// initialize args
@@ -324,77 +530,277 @@ public abstract class Term extends TermList.Node {
 						args.ensureCapacity(t.arity());
 						args.clear();
 					}
-				}
 
-				for(int i = 0; i < t.arity(); ++i) {
-					// recursively visit subnodes
-					args.add(get(t.arg(i)));
+					for(int i = 0; i < t.arity(); ++i) {
+						args.add((Term) argCache.get(t.arg(i)));
+					}
 				}
 
-				return t.copy(parent, t.arity() == 0 ? null : args);
+				current.put(t, t.copy(parent, t.arity() == 0 ? Collections.<Term>emptyList() : args));
 			}
+		}
 
-			protected Term evalLambda(Lambda l) {
-				Term tSubst = l.t.substitute(scope, index + 1, replacement.shift(parent, 1, 0));
-				return Lambda.create(parent, tSubst);
-			}
+		return (Term) cache.get(0).get(this);
+	}
 
-			protected Term evalLambdaVar(LambdaVar lv) {
-				if(lv.index == index && lv.scope == scope) {
-					return replacement;
-				} else {
-					return lv;
+	int mark = 0; // for some algorithms, eg match and unification and cycleMark use this field
+
+	// match(Term) and unify(Term) are undone using marks. This trail only restores the bindings
+	// of a failed call, hence it is empty between calls and can be shared by all calls of a thread.
+	private static final ThreadLocal<Trail> markTrail = ThreadLocal.withInitial(Trail::new);
+
+	/**
+	 * Sets 'link' in variables such that  this and that term. If they are ununifiable, false is returned, otherwise,
+	 * the link-field is set in each term.
+	 * @param that
+	 * @return
+	 */
+	public boolean match(Term that) {
+		// marks are set for unmatch.
+		Trail trail = markTrail.get();
+		int checkpoint = trail.size();
+
+		boolean success = match(that, trail, true);
+
+		// on success, bindings are kept until unmatch.
+		trail.forget(checkpoint);
+
+		return success;
+	}
+
+	/**
+	 * Like match(Term) but all terms whose link is set are recorded in trail. Bindings are
+	 * undone using trail.undo instead of unmatch.
+	 * @param that
+	 * @param trail
+	 * @return false if there is no match. In this case, the trail is restored.
+	 */
+	public boolean match(Term that, Trail trail) {
+		return match(that, trail, false);
+	}
+
+	private boolean match(Term that, Trail trail, boolean marks) {
+		int checkpoint = trail.size();
+
+		// pairs of pattern and subject. Explicit stack instead of recursion.
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+
+		stack.push(this);
+		stack.push(that);
+
+		while(!stack.isEmpty()) {
+			Term s = stack.pop();
+			Term p = stack.pop();
+
+			if(marks) trail.mark(p);
+
+			if(p == s) continue;
+
+			if(p.link != null) {
+				if(p.link == s) continue;
+			} else if(p.auxMatch(s)) {
+				// link can be set before the args are matched because
+				// if the args do not match, the whole match fails.
+				trail.link(p, s);
+
+				for(int i = p.arity() - 1; i >= 0; --i) {
+					stack.push(p.arg(i));
+					stack.push(s.arg(i));
 				}
+
+				continue;
 			}
-		};
 
-		return visit(visitor);
+			// clash
+			trail.undo(checkpoint);
+			return false;
+		}
 
+		return true;
 	}
 
+	/**
+	 * Matches this pattern against that and adds the bindings of the variables of this
+	 * pattern to sigma. Unlike match(Term), no field of the pattern is modified, hence
+	 * the same pattern can be matched by several threads using their own substitutions.
+	 * @param that
+	 * @param sigma substitution for the list of this pattern. Existing bindings must be respected.
+	 * @return false if there is no match. In this case, sigma is restored.
+	 */
+	public boolean match(Term that, Substitution sigma) {
+		int checkpoint = sigma.size();
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
 
+		stack.push(this);
+		stack.push(that);
 
+		while(!stack.isEmpty()) {
+			Term s = stack.pop();
+			Term p = stack.pop();
 
+			if(p instanceof Var) {
+				Term bound = sigma.get((Var) p);
+
+				if(bound == null) {
+					sigma.bind((Var) p, s);
+					continue;
+				}
+
+				// non-linear variable. Since terms are hash-consed, this is an identity check.
+				if(bound == s) continue;
+			} else if(p == s) {
+				continue;
+			} else if(p.auxMatch(s)) {
+				for(int i = p.arity() - 1; i >= 0; --i) {
+					stack.push(p.arg(i));
+					stack.push(s.arg(i));
+				}
 
+				continue;
+			}
 
+			// clash
+			sigma.undo(checkpoint);
+			return false;
+		}
 
-	private int mark = 0; // for some algorithms, eg match and unification and cycleMark use this field
+		return true;
+	}
 
 	/**
-	 * Sets 'link' in variables such that  this and that term. If they are ununifiable, false is returned, otherwise,
-	 * the link-field is set in each term.
+	 * Unifies this and that and adds the bindings to sigma. Both terms must be in the list of sigma.
+	 * Like unify(Term), there is no occurs check.
 	 * @param that
-	 * @return
+	 * @param sigma
+	 * @return false if they are not unifiable. In this case, sigma is restored.
 	 */
-	public boolean match(Term that) {
-		mark = 1;
+	public boolean unify(Term that, Substitution sigma) {
+		int checkpoint = sigma.size();
 
-		if(this == that) return true;
+		ArrayDeque<Term> stack = new ArrayDeque<>();
 
-		if(this.link != null) {
-			return this.link == that;
-		} else {
-			if(auxMatch(that)) {
-				/*if(closed()) */this.link = that;
-				return true;
+		stack.push(this);
+		stack.push(that);
+
+		while(!stack.isEmpty()) {
+			Term b = sigma.resolve(stack.pop());
+			Term a = sigma.resolve(stack.pop());
+
+			if(a == b) continue;
+
+			if(a instanceof Var) {
+				sigma.bind((Var) a, b);
+			} else if(b instanceof Var) {
+				sigma.bind((Var) b, a);
+			} else if(a.auxMatch(b)) {
+				for(int i = a.arity() - 1; i >= 0; --i) {
+					stack.push(a.arg(i));
+					stack.push(b.arg(i));
+				}
 			} else {
+				sigma.undo(checkpoint);
 				return false;
 			}
 		}
+
+		return true;
+	}
+
+	/**
+	 * Inserts this term into target where variables are replaced by their bindings in sigma.
+	 * This is the counterpart of insert for match(Term, Substitution). Fields of this term are not
+	 * modified, hence it can be used on terms that are shared by several threads.
+	 * @param sigma substitution for the list of this term. Unbound variables are copied.
+	 * @param target
+	 * @return
+	 */
+	public Term instantiate(Substitution sigma, TermList target) {
+		TermList.IndexMap cache = parent.acquireMap();
+
+		try {
+			ArrayDeque<Term> stack = new ArrayDeque<>();
+			stack.push(this);
+
+			ArrayList<Term> args = new ArrayList<>();
+
+			while(!stack.isEmpty()) {
+				Term t = stack.peek();
+
+				if(cache.contains(t)) {
+					stack.pop();
+					continue;
+				}
+
+				Term u = null;
+
+				if(t instanceof Var) {
+					u = sigma.get((Var) t);
+
+					if(u != null && (u.parent != target || u.link != null)) {
+						u = target.insert(u);
+					}
+				} else if(t.normalform && t.parent == target) {
+					u = t;
+				}
+
+				if(u == null) {
+					boolean ready = true;
+
+					for(int i = t.arity() - 1; i >= 0; --i) {
+						if(!cache.contains(t.arg(i))) {
+							stack.push(t.arg(i));
+							ready = false;
+						}
+					}
+
+					if(!ready) continue;
+
+					args.clear();
+
+					for(int i = 0; i < t.arity(); ++i) {
+						args.add((Term) cache.get(t.arg(i)));
+					}
+
+					u = t instanceof Lambda ? ((Lambda) t).copyInserted(target, args.get(0)) : t.copy(target, args);
+				}
+
+				stack.pop();
+				cache.put(t, u);
+			}
+
+			return (Term) cache.get(this);
+		} finally {
+			parent.releaseMap(cache);
+		}
 	}
 
+	/**
+	 * Checks whether the root of this pattern matches the root of that. Args are
+	 * matched in match.
+	 * @param that
+	 * @return true if the roots match and both have the same arity.
+	 */
 	protected abstract boolean auxMatch(Term that);
 
 	/**
 	 * Since not in all terms link is set, I need mark in match and unmatch.
 	 */
 	public void unmatch() {
-		if(mark == 1) {
-			mark = 0;
-			link = null;
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+
+		stack.push(this);
+
+		while(!stack.isEmpty()) {
+			Term t = stack.pop();
+
+			if(t.mark == 1) {
+				t.mark = 0;
+				t.link = null;
 
-			for(int i = 0; i < arity(); ++i) {
-				arg(i).unmatch();
+				for(int i = 0; i < t.arity(); ++i) {
+					stack.push(t.arg(i));
+				}
 			}
 		}
 	}
@@ -406,46 +812,86 @@ public abstract class Term extends TermList.Node {
 	 * @return
 	 */
 	public boolean unify(Term that) {
-		mark = 1; // mark both terms to know which ones were used in unify (necessary for ununify)
-		that.mark = 1;
-
-		if(this == that) return true;
-		else if(this.link != null) return this.link.unify(that);
-		else if(that.link != null) return this.unify(that.link);
-		else if(this instanceof Var || !(that instanceof Var)) {
-			if(auxUnify(that)) {
-				// link is set inside auxUnify
-				/*if(closed()) */this.link = that;
-				return true;
-			} else {
-				return false;
-			}
-		} else /*if(that instanceof Var)*/ {
-			// same as in Var
-			that.link = this;
-			return true;
-		}
-	}
+		// mark all terms that were used in unify (necessary for ununify)
+		Trail trail = markTrail.get();
+		int checkpoint = trail.size();
 
-	protected abstract boolean auxUnify(Term that);
+		boolean success = unify(that, trail, true);
+
+		// on success, bindings are kept until ununify.
+		trail.forget(checkpoint);
+
+		return success;
+	}
 
 	/**
-	 * Since not in all terms link is set, I need mark in match and unmatch.
+	 * Like unify(Term) but all terms whose link is set are recorded in trail. Bindings
+	 * are undone using trail.undo instead of ununify.
+	 * @param that
+	 * @param trail
+	 * @return false if they are not unifiable. In this case, the trail is restored.
 	 */
-	public void ununify() {
-		if(mark == 1) {
-			mark = 0;
+	public boolean unify(Term that, Trail trail) {
+		return unify(that, trail, false);
+	}
+
+	private boolean unify(Term that, Trail trail, boolean marks) {
+		int checkpoint = trail.size();
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+
+		stack.push(this);
+		stack.push(that);
+
+		while(!stack.isEmpty()) {
+			Term b = stack.pop();
+			Term a = stack.pop();
+
+			if(marks) {
+				trail.mark(a);
+				trail.mark(b);
+			}
+
+			// follow links. link == this is used in normalize.
+			while(a.link != null && a.link != a) {
+				a = a.link;
+				if(marks) trail.mark(a);
+			}
 
-			if(link != null) {
-				link = null;
+			while(b.link != null && b.link != b) {
+				b = b.link;
+				if(marks) trail.mark(b);
 			}
 
-			link = null;
+			if(a == b) continue;
 
-			for(int i = 0; i < arity(); ++i) {
-				arg(i).unmatch();
+			if(a instanceof Var || !(b instanceof Var)) {
+				if(!a.auxMatch(b)) {
+					trail.undo(checkpoint);
+					return false;
+				}
+
+				// link is set before the args are unified, like in match.
+				trail.link(a, b);
+
+				for(int i = a.arity() - 1; i >= 0; --i) {
+					stack.push(a.arg(i));
+					stack.push(b.arg(i));
+				}
+			} else {
+				trail.link(b, a);
 			}
 		}
+
+		return true;
+	}
+
+	/**
+	 * Since not in all terms link is set, I need mark in match and unmatch.
+	 */
+	public void ununify() {
+		// same as unmatch
+		unmatch();
 	}
 
 
@@ -462,55 +908,162 @@ public abstract class Term extends TermList.Node {
 	 * @return
 	 */
 	public Term normalize(TermFn fn) {
+		return normalize(fn, null);
+	}
+
+	/**
+	 * Like normalize(fn), but normalforms of subterms are looked up in and added to cache.
+	 * @param fn
+	 * @param cache if null, no cache is used.
+	 * @return
+	 */
+	public Term normalize(TermFn fn, NormalFormCache cache) {
+		RewriteListener listener = fn.listener();
+
+		if(listener != null) {
+			listener.normalizeStarted(fn, this);
+
+			long start = System.nanoTime();
+			int size = parent.size();
+
+			Term nf = null;
+
+			try {
+				nf = normalizeWithCache(fn, cache);
+				return nf;
+			} finally {
+				listener.normalized(fn, this, nf, System.nanoTime() - start, parent.size() - size);
+			}
+		}
+
+		return normalizeWithCache(fn, cache);
+	}
+
+	private Term normalizeWithCache(TermFn fn, NormalFormCache cache) {
+		NormalFormCache.Session session = cache != null ? cache.open(fn) : null;
+
+		try {
+			return normalizeInSession(fn, session);
+		} finally {
+			if(session != null) session.close();
+		}
+	}
+
+	Term normalizeInSession(TermFn fn, NormalFormCache.Session session) {
+		// This uses an explicit stack instead of recursion. A frame consists of the term
+		// that is currently normalized and the index of the next argument that must be normalized.
+		// origins contains the term for which the frame was created, its normalform is put into the cache.
+		Term[] terms = new Term[16];
+		Term[] origins = new Term[16];
+		int[] next = new int[16];
+
 		// if link in u is already set, it must have already been rewritten.
-		Term t = resolveLinks();
+		terms[0] = origins[0] = resolveLinks();
+		next[0] = 0;
 
-		// fixme I should mark a term before I rewrite it...
+		if(session != null && !terms[0].normalform) terms[0] = session.lookup(terms[0]);
 
-		// rewrite it at root as long as possible.
-		while (!t.normalform) {
-			Term u = null;
+		int sp = 1;
 
-			boolean subtermRewritten = false;
+		Term nf = null;
 
-			for (int i = 0; i < t.arity(); ++i) {
-				t.arg(i).normalize(fn);
-				if(t.arg(i).link != null) subtermRewritten = true;
+		while(sp > 0) {
+			Term t = terms[sp - 1];
+
+			if(t.normalform) {
+				// this is also the exit for the root frame.
+				if(session != null && origins[sp - 1] != t) session.put(origins[sp - 1], t);
+
+				nf = t;
+				sp--;
+				continue;
 			}
 
-			if (subtermRewritten) {
-				// some subterm was rewritten/normalized.
-				u = t.parent.insert(t);
-			} else {
-				// force cycle
-				try {
-					t.link = t;
-					u = fn.apply(t, t.parent);
-				} finally {
-					t.link = null;
-				}
+			int i = next[sp - 1];
 
-				if(u == null) {
-					t.normalform = true;
-					return t;
+			if(i < t.arity()) {
+				// normalize the next argument first.
+				next[sp - 1] = i + 1;
+
+				Term arg = t.arg(i).resolveLinks();
+
+				if(!arg.normalform && session != null) arg = session.lookup(arg);
+
+				if(!arg.normalform) {
+					if(sp == terms.length) {
+						terms = Arrays.copyOf(terms, sp * 2);
+						origins = Arrays.copyOf(origins, sp * 2);
+						next = Arrays.copyOf(next, sp * 2);
+					}
+
+					terms[sp] = origins[sp] = arg;
+					next[sp] = 0;
+					sp++;
 				}
+
+				continue;
 			}
-			// normalize was not called yet on this term.
 
-			// u contains a reduct of t.
+			Term u = t.rootStep(fn);
+
+			if(u == null) continue; // t is now a normalform, pops the frame in the next iteration.
+
+			// continue with u in the same frame.
+			// if u is already a normalform, the frame will be popped.
+			terms[sp - 1] = u;
+			next[sp - 1] = 0;
+		}
+
+		return nf;
+	}
 
-			// what if it is a self-loop?
-			if(t == u) throw new CycleException(t);
+	/**
+	 * One step of normalize at the root of this term, once all args are normalized: If an arg was
+	 * rewritten, the term is inserted again, otherwise fn is applied. link is set to the reduct.
+	 * @param fn
+	 * @return the reduct, or null if this term is a normalform (then, normalform is set).
+	 */
+	Term rootStep(TermFn fn) {
+		boolean subtermRewritten = false;
+
+		for (int k = 0; k < arity(); ++k) {
+			if(arg(k).link != null) {
+				subtermRewritten = true;
+				break;
+			}
+		}
 
-			// if link in u is already set, it must have already been rewritten.
-			u = u.resolveLinks();
+		Term u;
 
-			// connect it now that we are sure that no loops would be introduced.
-			t = t.link = u;
+		if (subtermRewritten) {
+			// some subterm was rewritten/normalized.
+			u = parent.insert(this);
+		} else {
+			// force cycle
+			try {
+				this.link = this;
+				u = fn.apply(this, parent);
+			} finally {
+				this.link = null;
+			}
 
-			// if u (now t) is already a normalform, the loop will terminate.
+			if(u == null) {
+				this.normalform = true;
+				return null;
+			}
 		}
 
-		return t;
+		// u contains a reduct of this.
+
+		// what if it is a self-loop?
+		if(this == u) throw new CycleException(this);
+
+		// if link in u is already set, it must have already been rewritten.
+		u = u.resolveLinks();
+
+		// connect it now that we are sure that no loops would be introduced.
+		this.link = u;
+
+		return u;
 	}
 }
@@ -10,6 +10,35 @@ public interface TermFn {
 
     Term apply(Term t, TermList target);
 
+    /**
+     * Normalforms in a NormalFormCache are stored per TermFn and version. If the rules
+     * of a TermFn change, it must return a new version so that old normalforms are not used anymore.
+     * @return
+     */
+    default long version() {
+        return 0;
+    }
+
+    /**
+     * Called by strategies if 'to' was created from 'from' by replacing some args, eg because
+     * they were rewritten. TermFns that remember failures at the root of terms (see Term.failures)
+     * can transfer the ones that do not depend on the replaced args. Only strategies that try the
+     * root before the args (subtermTree, subtermDag) call it; innermost normalize never tries a
+     * root before its args are normalforms, so there is nothing to transfer.
+     * @param from
+     * @param to
+     */
+    default void rebuilt(Term from, Term to) {
+    }
+
+    /**
+     * @return the listener that receives the events of normalizations with this TermFn, or
+     * null if there is none.
+     */
+    default RewriteListener listener() {
+        return null;
+    }
+
     default Term transitive(Term t, TermList target) {
         Term u = this.apply(t, target);
 
@@ -56,83 +85,98 @@ public interface TermFn {
                 }
             }
 
-            return isReduced ? t.copy(target, args) : null;
+            if(!isReduced) return null;
+
+            Term v = t.copy(target, args);
+            rebuilt(t, v);
+            return v;
         }
     }
 
-    default Term subtermDag(TermFn fn, Term t, TermList target) {
-        TreeMap<Term, Term> cache = new TreeMap<>(TermList.CMP);
-
-        TreeSet<Term> queue = new TreeSet<>(TermList.CMP);
-        TreeSet<Term> pending = new TreeSet<>(TermList.CMP);
-
-        queue.add(t);
-
-        while(!queue.isEmpty()) {
-            Term u = queue.pollLast(); // fetch largest term (it would not be reused).
-
-            assert !cache.containsKey(u);
-
-            Term v = fn.apply(u, target);
-
-            if(v != null) {
-                // it was mapped
-                cache.put(u, v);
-            } else {
-                // do on all subterms.
-                pending.add(u);
-
-                for(int i = 0; i < u.arity(); ++i) {
-                    queue.add(u.arg(i));
-                    // since I only fetch the largest, all subterms will be only added once,
-                    // thus preserving the dag property.
+    /**
+     * Applies fn to t and to all subterms of t that are not inside a term that was mapped.
+     * Each node of the DAG is visited only once. Since indices are a topological order,
+     * this is done in two sweeps over the indices of the nodes, first descending to find
+     * the terms to which fn is applied, then ascending to rebuild all terms above them.
+     * @return null if fn was not applicable anywhere.
+     */
+    static Term subtermDag(TermFn fn, Term t, TermList target) {
+        TermList list = t.parent;
+        TermList.IndexMap cache = list.acquireMap();
+
+        try {
+            BitSet queue = new BitSet(t.index + 1);
+            BitSet pending = new BitSet(t.index + 1);
+
+            queue.set(t.index);
+
+            // fetch largest term (it would not be reused).
+            for(int i = t.index; i >= 0; i = queue.previousSetBit(i - 1)) {
+                Term u = list.node(i);
+
+                Term v = fn.apply(u, target);
+
+                if(v != null) {
+                    // it was mapped
+                    cache.put(u, v);
+                } else {
+                    // do on all subterms. Their indices are smaller, so they are visited only once.
+                    pending.set(i);
+
+                    for(int k = 0; k < u.arity(); ++k) {
+                        queue.set(u.arg(k).index);
+                    }
                 }
             }
-        }
 
-        ArrayList<Term> args = null; // will be created if necessary.
+            ArrayList<Term> args = null; // will be created if necessary.
 
-        // pending contains only terms that were not mapped.
-        while(!pending.isEmpty()) {
-            Term w = pending.pollFirst(); // fetch the one term that definitely has no subterm in there.
+            // pending contains only terms that were not mapped. Args come first.
+            for(int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+                Term w = list.node(i);
 
-            // check whether a subterm was mapped.
-            boolean isReduced = false;
+                // check whether a subterm was mapped.
+                boolean isReduced = false;
 
-            for(int i = 0; i < w.arity(); ++i) {
-                Term arg = cache.get(w.arg(i));
+                for(int k = 0; k < w.arity(); ++k) {
+                    Term arg = (Term) cache.get(w.arg(k));
 
-                if(isReduced) {
-                    // args was already initialized.
-                    args.add(arg != null ? arg : w.arg(i));
-                } else if (arg != null) {
-                    // we have mapped subterms, thus do something about it.
-                    isReduced = true;
+                    if(isReduced) {
+                        // args was already initialized.
+                        args.add(arg != null ? arg : w.arg(k));
+                    } else if (arg != null) {
+                        // we have mapped subterms, thus do something about it.
+                        isReduced = true;
 
-                    // initialize args
-                    if(args == null) {
-                        args = new ArrayList<>(w.arity());
-                    } else {
-                        args.clear();
-                        args.ensureCapacity(w.arity());
-                    }
+                        // initialize args
+                        if(args == null) {
+                            args = new ArrayList<>(w.arity());
+                        } else {
+                            args.clear();
+                            args.ensureCapacity(w.arity());
+                        }
 
-                    // and add former (unmapped) arguments.
-                    for(int k = 0; k < i; ++k) {
-                        args.add(w.arg(k));
+                        // and add former (unmapped) arguments.
+                        for(int j = 0; j < k; ++j) {
+                            args.add(w.arg(j));
+                        }
+
+                        args.add(arg);
                     }
+                }
 
-                    args.add(arg);
+                // and if so, then create a copy and put it into the cache.
+                if(isReduced) {
+                    Term u = w.copy(target, args);
+                    fn.rebuilt(w, u);
+                    cache.put(w, u);
                 }
             }
 
-            // and if so, then create a copy and put it into the cache.
-            if(isReduced) {
-                cache.put(w, w.copy(target, args));
-            }
+            return (Term) cache.get(t); // returns null if not in cache.
+        } finally {
+            list.releaseMap(cache);
         }
-
-        return cache.get(t); // returns null if not in cache.
     }
 
 
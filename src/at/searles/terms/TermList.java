@@ -1,6 +1,8 @@
 package at.searles.terms;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * A data structure to contain nodes of terms. Technically a single linked list, this DS mainly
@@ -17,16 +19,38 @@ public class TermList /*implements Iterable<Term>*/ {
     };
 
     private Term head = null;
-    private static int counter = 0;
+    private Term tail = null;
+    private int size = 0;
 
-    final int id = counter++;
+    /**
+     * All terms by their index.
+     */
+    private Term[] nodes = new Term[16];
+
+    /**
+     * Hash table for hash-consing. Buckets are chained using Node.hashNext, thus there are no
+     * additional entry objects. The length is always a power of 2.
+     */
+    private Term[] table = new Term[16];
+
+    // lists are also created by worker threads of ParallelNormalizer.
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    final int id = counter.getAndIncrement();
+
+    // number of variables in this list, see Var.slot
+    private int varCount = 0;
 
     public TermList() {}
 
     TermList(Term head) {
         // this one is here just for testing...
-        this.head = head;
+        this.head = this.tail = head;
         this.head.parent = this;
+        this.head.index = 0;
+        this.nodes[0] = head;
+        this.size = 1;
+        hashIn(head);
     }
 
     /**
@@ -48,35 +72,63 @@ public class TermList /*implements Iterable<Term>*/ {
     /**
      * Makes sure that t is inside this termlist. Since the algorithm of 'insert' inserts
      * the args first, the args in t must be identical to the ones of the found terms.
+     * Lookup is done in a hash table using the kind, the symbol/value and the identities of the args
+     * of t, hence it is O(1) expected. New terms are appended at the end so that
+     * args always have a smaller index than their superterms.
      * @param t t is a new term. Copies are not allowed because they are already in the list.
-     * @param max Calling methods can determine a node of a subterm to speed up this method. If null, then searching
-     *            will start from head.
-     * @return Either the node in this termlist that is equivalent to
+     * @return Either the node in this termlist that is equivalent to t or t itself if it was appended.
      */
-    Term findOrAppend(Term t, Term max) {
-        if(head == null) {
+    Term findOrAppend(Term t) {
+        int h = spread(t.hash());
+
+        for(Term u = table[h & (table.length - 1)]; u != null; u = u.hashNext) {
+            if(u.eq(t)) return u; // found it.
+        }
+
+        // did not find it, hence append it.
+        if(tail == null) {
             if(t.index != -1) throw new IllegalArgumentException();
             // in this case, t better does not contain any args...
             t.parent = this;
-            return head = t;
+            t.index = 0;
+            head = tail = t;
+        } else {
+            tail.append(t);
+            tail = t;
         }
 
-        // Searching for term starts behind max.
-        Term prev = max;
-        Term next = max == null ? head : max.next;
+        if(size == nodes.length) nodes = Arrays.copyOf(nodes, size * 2);
 
-        while(next != null && !next.eq(t)) {
-            prev = next;
-            next = next.next;
+        nodes[size++] = t;
+        hashIn(t);
+
+        if(size > table.length - (table.length >> 2)) {
+            rehash(table.length << 1);
         }
 
-        if(next != null) {
-            // found it.
-            return next;
-        } else {
-            // did not find it.
-            prev.append(t);
-            return t; // hence append and return it.
+        return t;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private void hashIn(Term t) {
+        int i = spread(t.hash()) & (table.length - 1);
+        t.hashNext = table[i];
+        table[i] = t;
+    }
+
+    /**
+     * Rebuilds the hash table with the given capacity. Since the hash codes depend on the indices
+     * of the arguments, this must also be called if indices are changed.
+     * @param capacity must be a power of 2.
+     */
+    private void rehash(int capacity) {
+        table = new Term[capacity];
+
+        for(Term t = head; t != null; t = t.next) {
+            hashIn(t);
         }
     }
 
@@ -119,9 +171,302 @@ public class TermList /*implements Iterable<Term>*/ {
     }
 
     public int size() {
-        int i = 0;
-        for(Term t = head; t != null; t = t.next) i++;
-        return i;
+        return size;
+    }
+
+    int nextVarSlot() {
+        return varCount++;
+    }
+
+    /**
+     * @return the number of variable slots in this list. Used to size substitutions.
+     */
+    public int varCount() {
+        return varCount;
+    }
+
+    /**
+     * Returns the term with the given index.
+     * @param index must be smaller than size().
+     * @return
+     */
+    Term node(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Map from terms of one termlist to values that uses arrays indexed by Node.index instead of
+     * a tree or hash map. Instead of clearing the arrays, the generation is incremented,
+     * hence after the first use, acquiring a map only costs O(1). The indices that were put are
+     * recorded so that release only drops the values that were actually set.
+     */
+    static final class IndexMap {
+        private int[] stamps = new int[16];
+        private Object[] values = new Object[16];
+        private int generation = 0;
+
+        private int[] touched = new int[16];
+        private int touchedCount = 0;
+
+        private void reset(int capacity) {
+            if(stamps.length < capacity) {
+                stamps = new int[capacity];
+                values = new Object[capacity];
+                generation = 0;
+            }
+
+            if(generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                generation = 0;
+            }
+
+            generation++;
+        }
+
+        /**
+         * Drops all values that were put since the last reset so that they can be collected.
+         */
+        private void release() {
+            for(int i = 0; i < touchedCount; ++i) {
+                values[touched[i]] = null;
+            }
+
+            touchedCount = 0;
+        }
+
+        boolean contains(Term t) {
+            return t.index < stamps.length && stamps[t.index] == generation;
+        }
+
+        Object get(Term t) {
+            return contains(t) ? values[t.index] : null;
+        }
+
+        void put(Term t, Object value) {
+            if(t.index >= stamps.length) {
+                int capacity = Math.max(stamps.length * 2, t.index + 1);
+                stamps = Arrays.copyOf(stamps, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+
+            if(stamps[t.index] != generation) {
+                if(touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+
+                touched[touchedCount++] = t.index;
+                stamps[t.index] = generation;
+            }
+
+            values[t.index] = value;
+        }
+    }
+
+    // maps that are currently not used.
+    private final ArrayList<IndexMap> freeMaps = new ArrayList<>();
+
+    /**
+     * Returns an empty IndexMap for terms of this list. It should be returned using releaseMap
+     * once it is not needed anymore.
+     * @return
+     */
+    synchronized IndexMap acquireMap() {
+        IndexMap map = freeMaps.isEmpty() ? new IndexMap() : freeMaps.remove(freeMaps.size() - 1);
+        map.reset(size);
+        return map;
+    }
+
+    synchronized void releaseMap(IndexMap map) {
+        map.release();
+        freeMaps.add(map);
+    }
+
+    /**
+     * Normalizes all roots using fn. First, the union of the DAGs of all roots is collected. Then
+     * each node in it is normalized exactly once in ascending order of index, so when a node is
+     * normalized, all its args already are normalforms. Shared subterms are thus only normalized once
+     * for all roots, and the same cache session is used for all of them.
+     * @param roots terms of this list.
+     * @param fn
+     * @param cache if null, no cache is used.
+     * @param sink receives the normalforms of the roots in the order of roots, each as soon
+     *             as it and all normalforms before it are available.
+     */
+    public void normalizeAll(Collection<Term> roots, TermFn fn, NormalFormCache cache, Consumer<Term> sink) {
+        Term[] submitted = roots.toArray(new Term[0]);
+
+        BitSet reachable = new BitSet(size);
+
+        for(Term t : submitted) {
+            if(t.parent != this) throw new IllegalArgumentException(t + " is not in this termlist");
+            reachable.set(t.index);
+        }
+
+        // args have smaller indices, hence one descending sweep finds the union of all DAGs.
+        for(int i = reachable.length() - 1; i >= 0; i = reachable.previousSetBit(i - 1)) {
+            Term t = nodes[i];
+
+            if(t.normalform) continue;
+
+            for(int k = 0; k < t.arity(); ++k) {
+                reachable.set(t.arg(k).index);
+            }
+        }
+
+        NormalFormCache.Session session = cache != null ? cache.open(fn) : null;
+
+        try {
+            int next = 0; // next root that is passed to sink
+
+            for(int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                Term t = nodes[i];
+
+                if(!t.normalform) t.normalizeInSession(fn, session);
+
+                for(; next < submitted.length && submitted[next].index <= i; ++next) {
+                    sink.accept(submitted[next].normalizeInSession(fn, session));
+                }
+            }
+        } finally {
+            if(session != null) session.close();
+        }
+    }
+
+    /**
+     * Normalizes all roots using fn without a cache, see normalizeAll(Collection, TermFn, NormalFormCache, Consumer).
+     * @return the normalforms in the order of roots.
+     */
+    public List<Term> normalizeAll(Collection<Term> roots, TermFn fn) {
+        List<Term> nfs = new ArrayList<>(roots.size());
+        normalizeAll(roots, fn, null, nfs::add);
+        return nfs;
+    }
+
+    /**
+     * If set to a positive value, compactIfNeeded will compact this list once its size exceeds it.
+     */
+    private int compactThreshold = 0;
+
+    /**
+     * Removes all terms that are not reachable from roots. Args and link-fields are followed, links into
+     * other termlists are ignored. Terms that are kept remain the same objects, but index is renumbered,
+     * while the relative order of terms is kept so that args are still smaller than superterms.
+     * Removed terms are detached from this list and must not be used anymore. Since terms of
+     * other lists might point to terms in this list via 'link' (eg while matching), this must only be called
+     * when no such links are set.
+     * @param roots Terms that must be kept. All of them must be in this list.
+     * @return The relocation map, ie for every old index the new index or -1 if the term was removed.
+     */
+    public int[] compact(Collection<Term> roots) {
+        boolean[] live = new boolean[size];
+
+        ArrayDeque<Term> stack = new ArrayDeque<>();
+
+        for(Term root : roots) {
+            if(root.parent != this) throw new IllegalArgumentException("root must be in this termlist");
+            stack.push(root);
+        }
+
+        // mark
+        while(!stack.isEmpty()) {
+            Term t = stack.pop();
+
+            if(live[t.index]) continue;
+
+            live[t.index] = true;
+
+            for(int i = 0; i < t.arity(); ++i) {
+                stack.push(t.arg(i));
+            }
+
+            if(t.link != null && t.link.parent == this) {
+                stack.push(t.link);
+            }
+        }
+
+        // sweep and renumber
+        int[] relocation = new int[size];
+
+        Term prev = null;
+        int newSize = 0;
+
+        for(Term t = head; t != null; ) {
+            Term next = t.next;
+
+            if(live[t.index]) {
+                relocation[t.index] = newSize;
+                nodes[newSize] = t;
+                t.index = newSize++;
+
+                if(prev == null) {
+                    head = t;
+                } else {
+                    prev.next = t;
+                }
+
+                prev = t;
+            } else {
+                relocation[t.index] = -1;
+                t.index = -1;
+                t.parent = null;
+                t.next = null;
+                t.hashNext = null;
+            }
+
+            t = next;
+        }
+
+        if(prev == null) {
+            head = tail = null;
+        } else {
+            prev.next = null;
+            tail = prev;
+        }
+
+        Arrays.fill(nodes, newSize, size, null);
+
+        size = newSize;
+
+        // hash codes depend on the indices of args.
+        int capacity = 16;
+        while(capacity - (capacity >> 2) < size) capacity <<= 1;
+
+        rehash(capacity);
+
+        // pooled maps are sized for the old list.
+        synchronized(this) {
+            freeMaps.clear();
+        }
+
+        return relocation;
+    }
+
+    /**
+     * Sets the size from which on compactIfNeeded actually compacts this list.
+     * @param threshold 0 or negative to disable compaction.
+     */
+    public void setCompactThreshold(int threshold) {
+        this.compactThreshold = threshold;
+    }
+
+    /**
+     * Compacts this list if a threshold was set and the size of this list exceeds it. Callers should
+     * call this method at points where all terms that are still needed are known, eg between two
+     * calls to normalize. If most terms are still reachable, the threshold is raised to twice
+     * the remaining size so that this list is not compacted over and over again.
+     * @param roots Terms that must be kept.
+     * @return the relocation map or null if the list was not compacted.
+     */
+    public int[] compactIfNeeded(Collection<Term> roots) {
+        if(compactThreshold <= 0 || size <= compactThreshold) return null;
+
+        int[] relocation = compact(roots);
+
+        if(size > compactThreshold / 2) {
+            compactThreshold = size * 2;
+        }
+
+        return relocation;
     }
 
     /**
@@ -141,7 +486,8 @@ public class TermList /*implements Iterable<Term>*/ {
     }
 
     /**
-     * Clears all links in this termlist.
+     * Clears all links in this termlist. If the bindings were recorded in a Trail,
+     * Trail.undo is cheaper.
      */
     public void clearMatcher() {
         for(Term t = head; t != null; t = t.next) {
@@ -179,6 +525,11 @@ public class TermList /*implements Iterable<Term>*/ {
         int index = -1;
         Term next = null;
 
+        /**
+         * Next term in the same bucket of the hash table of parent.
+         */
+        Term hashNext = null;
+
         public TermList parent = null;
 
         Node append(Term nextOne) {
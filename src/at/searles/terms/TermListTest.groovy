@@ -2,9 +2,21 @@ package at.searles.terms
 
 import at.searles.parsing.parser.Parser
 import at.searles.parsing.regex.Lexer
+import at.searles.terms.io.StreamingLoader
+import at.searles.terms.jfr.JfrRewriteListener
+import at.searles.terms.rules.Arithmetics
 import at.searles.terms.rules.CTRS
+import at.searles.terms.rules.MatchingAutomaton
+import at.searles.terms.rules.OutermostNeeded
+import at.searles.terms.rules.TRS
 
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ForkJoinPool
 import java.util.function.Function
+import java.util.function.Supplier
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordingFile
 
 /**
  * Some test cases
@@ -30,6 +42,12 @@ class TermListTest extends GroovyTestCase {
         return p.parse(s);
     }
 
+    static Term fo(String s, TermList l) {
+        if(l == null) l = new TermList();
+        Parser<Term> p = TermParserBuilder.FO_BUILDER.parser(l, isUpperVar);
+        return p.parse(s);
+    }
+
     void testBeta0() {
         // normal beta reduction
         Term test1 = ho("(\\x.x 0) (\\y.y)", null);
@@ -112,6 +130,78 @@ class TermListTest extends GroovyTestCase {
         assert n84 == n84_2;
     }
 
+    void testCompact() {
+        TermList l = new TermList();
+
+        Term n3 = ho("\\f.\\x.f (f (f x))", l);
+        Term plus = ho("\\m.\\n.\\f.\\x.m f (n f x)", l);
+        Term t = App.create(l, App.create(l, plus, n3), n3);
+
+        Term nf = t.normalize(betaFn);
+
+        // beta reduction does not leave intermediate terms behind, hence add some garbage.
+        Term garbage = ho("\\y.g (\\z.z y)", l);
+
+        int oldSize = l.size();
+        int oldPlus = plus.index;
+        int oldGarbage = garbage.index;
+
+        int[] relocation = l.compact(Arrays.asList(t));
+
+        assert l.size() < oldSize;
+        assert relocation.length == oldSize;
+
+        // plus is reachable from t, garbage is not.
+        assert relocation[oldPlus] == plus.index;
+        assert plus.parent == l;
+        assert relocation[oldGarbage] == -1;
+        assert garbage.index == -1 && garbage.parent == null;
+        assert nf.parent == l;
+        // the link chain from t to its normalform must be kept.
+        Term u = t;
+        while(u.link != null) u = u.link;
+        assert u == nf;
+
+        assert nf.toString().equals("\\a.\\b.a (a (a (a (a (a b)))))");
+
+        // hash-consing must still work after renumbering
+        assert ho("\\f.\\x.f (f (f (f (f (f x)))))", l) == nf;
+        assert ho("\\f.\\x.f (f (f x))", l) == n3;
+    }
+
+    void testMaxFree() {
+        TermList l = new TermList();
+
+        Term v0 = LambdaVar.create(l, 0, l);
+        Term v2 = LambdaVar.create(l, 2, l);
+
+        assert v0.maxFree == 0 && v2.maxFree == 2;
+
+        // a lambda binds 0 and lowers the other indices
+        assert Lambda.create(l, v0).maxFree == -1;
+        assert Lambda.create(l, v2).maxFree == 1;
+
+        assert Fun.create(l, "f", [v0, Lambda.create(l, v2)]).maxFree == 1;
+        assert Fun.create(l, "c", []).maxFree == -1;
+
+        // closed terms are returned as they are, nothing is added to the list.
+        Term closed = ho("\\x.\\y.x (G y)", l);
+        assert closed.maxFree == -1;
+
+        int size = l.size();
+
+        assert closed.shift(l, 3, 0).is(closed);
+        assert closed.substitute(l, 0, v2).is(closed);
+        assert closed.rebind(new TermList()).is(closed);
+        assert l.size() == size;
+
+        // closed subterms of open terms are kept as well.
+        Term shifted = Fun.create(l, "h", [closed, v0]).shift(l, 1, 0);
+
+        assert shifted.arg(0).is(closed);
+        assert shifted.arg(1) == LambdaVar.create(l, 1, l);
+    }
+
     void testInsert() {
         // part 2:
         // This test shows some ambiguity in connection with
@@ -347,6 +437,737 @@ class TermListTest extends GroovyTestCase {
         assert q.toString().equals("s(s(s(s(s(0())))))");
     }
 
+    void testTRSFirstMatch() {
+        // the first rule in order of declaration must be applied, also if rules are indexed.
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "f(X, b) -> r1 " +
+                "g(X) -> r2 " +
+                "f(a, X) -> r3 " +
+                "f(X, X) -> r4 " +
+                "f(X, Y) -> r5"
+        );
+
+        TermList l = new TermList();
+
+        assert fo("f(a, b)", l).normalize(trs).toString().equals("r1()");
+        assert fo("f(a, c)", l).normalize(trs).toString().equals("r3()");
+        assert fo("f(c, c)", l).normalize(trs).toString().equals("r4()");
+        assert fo("f(c, d)", l).normalize(trs).toString().equals("r5()");
+        assert fo("h(g(c))", l).normalize(trs).toString().equals("h(r2())");
+    }
+
+    void testDeepTerms() {
+        int depth = 100000;
+
+        Throwable error = null;
+
+        // 1 MB is the default stack size of a thread.
+        Thread th = new Thread(null, {
+            try {
+                TermList l = new TermList();
+
+                def numeral = { Term t -> for(int i = 0; i < depth; ++i) t = Fun.create(l, "s", [t]); t };
+
+                Term zero = Fun.create(l, "0", []);
+                Term n = numeral(zero);
+
+                // normalize: plus(0, s^n(0)) takes n steps to s^n(0).
+                TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                        "plus(X, 0) -> X " +
+                        "plus(X, s(Y)) -> s(plus(X, Y))"
+                );
+
+                assert Fun.create(l, "plus", [zero, n]).normalize(trs) == n;
+
+                // match and unmatch
+                Term x = Var.create(l, "X");
+                Term pattern = numeral(x);
+
+                assert pattern.match(n);
+                assert x.link == zero;
+                pattern.unmatch();
+                assert x.link == null;
+
+                // insert into another list
+                TermList l2 = new TermList();
+                Term n2 = l2.insert(n);
+                assert n2.parent == l2 && l2.size() == depth + 1;
+
+                // shift and substitute (by beta reduction)
+                Term body = numeral(LambdaVar.create(l, 0, l));
+                assert body.shift(l, 1, 0) == numeral(LambdaVar.create(l, 1, l));
+                assert ((Lambda) Lambda.create(l, body)).beta(zero) == n;
+            } catch(Throwable t) {
+                error = t;
+            }
+        } as Runnable, "deep", 1 << 20);
+
+        th.start();
+        th.join();
+
+        if(error != null) throw error;
+    }
+
+    void testTermStore() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "plus(X, 0) -> X " +
+                "plus(X, s(Y)) -> s(plus(X, Y))"
+        );
+
+        TermStore store = new TermStore();
+
+        TermStore.View view = store.view();
+        int h = view.put(fo("pair(plus(s(0), s(s(0))), s(0))", view.list));
+
+        int size = store.size();
+
+        // the TRS rewrites on handles.
+        int nf = store.normalize(h, trs);
+
+        assert store.resolve(h) == nf;
+        assert store.kind(nf) == TermStore.FUN;
+        assert store.symbol(nf).name.equals("pair");
+        assert store.arg(nf, 1) == store.arg(store.arg(store.arg(nf, 0), 0), 0); // hash-consed
+        assert store.view().get(nf).toString().equals("pair(s(s(s(0()))), s(0()))");
+
+        // plus(s(0), s(s(0))), 2 reducts (one per step), 2 rebuilt terms s(..) and the normalform.
+        assert store.size() <= size + 6;
+        assert store.normalize(h, trs) == nf && store.normalize(store.arg(h, 0), trs) == store.arg(nf, 0);
+
+        // other TermFns run on a materialized copy.
+        CTRS ctrs = new CTRS.CTRSParser(new Lexer(), isUpperVar).parse(
+                "plus(X, 0) -> X " +
+                "plus(X, s(Y)) -> s(plus(X, Y)) " +
+                "g(X) -> X <= plus(X, s(0)) -> s(X)"
+        );
+
+        int t = store.fun(Signature.DEFAULT.symbol("g", 1), h);
+        assert store.view().get(store.normalize(t, ctrs)).toString().equals("pair(s(s(s(0()))), s(0()))");
+        assert store.resolve(t) == nf;
+
+        // cycles are detected on handles.
+        TRS cyclic = new TRS.TRSParser(new Lexer(), isUpperVar).parse("f(X) -> g(f(X))");
+        int c = store.fun(Signature.DEFAULT.symbol("f", 1), nf);
+
+        try {
+            store.normalize(c, cyclic);
+            assert false;
+        } catch(CycleException ignored) {}
+    }
+
+    /**
+     * Returns the rules that match t according to the automaton and checks them and their
+     * bindings against Term.match. The same is checked on handles if t is first order.
+     */
+    static List<Integer> automatonMatches(MatchingAutomaton automaton, List<Term> lhss, Term t) {
+        List<Integer> matches = [];
+
+        for(int i : automaton.match(t)) {
+            boolean isMatch = lhss[i].match(t);
+
+            if(automaton.isCompiled(i)) {
+                Term[] binding = automaton.bindings(i, t);
+                assert (binding != null) == isMatch;
+
+                if(isMatch) {
+                    Var[] vars = automaton.variables(i);
+                    for(int k = 0; k < vars.length; ++k) assert vars[k].link == binding[k];
+                }
+            }
+
+            if(isMatch) {
+                lhss[i].unmatch();
+                matches.add(i);
+            }
+        }
+
+        // rules that were not reported must not match.
+        for(int i = 0; i < lhss.size(); ++i) {
+            if(!matches.contains(i) && lhss[i].match(t)) {
+                lhss[i].unmatch();
+                assert false : "rule " + i + " matches " + t + " but was not reported";
+            }
+        }
+
+        if(lhss.every { automaton.isCompiled(lhss.indexOf(it)) }) {
+            TermStore store = new TermStore();
+            TermStore.View view = store.view();
+            int h = view.put(view.list.insert(t));
+
+            List<Integer> handleMatches = automaton.match(store, h).findAll { automaton.bindings(it, store, h) != null };
+            assert handleMatches == matches;
+        }
+
+        return matches;
+    }
+
+    void testMatchingAutomaton() {
+        TermList l = new TermList();
+
+        List<Term> lhss = [
+                fo("f(X, Y)", l),
+                fo("f(a, Y)", l),
+                fo("f(X, X)", l), // non-linear
+                fo("f(X, g(X))", l), // non-linear below a symbol
+                fo("f(g(X), b)", l),
+                fo("h(X, c)", l)
+        ];
+
+        MatchingAutomaton automaton = new MatchingAutomaton(lhss);
+
+        // overlapping rules are reported in declaration order.
+        assert automatonMatches(automaton, lhss, fo("f(a, a)", l)) == [0, 1, 2];
+        assert automatonMatches(automaton, lhss, fo("f(a, g(a))", l)) == [0, 1, 3];
+        assert automatonMatches(automaton, lhss, fo("f(g(a), b)", l)) == [0, 4];
+
+        // non-linear patterns: the automaton reports them, but bindings fail.
+        Term t = fo("f(b, g(a))", l);
+        assert automaton.match(t).contains(3) && automaton.bindings(3, t) == null;
+        assert automatonMatches(automaton, lhss, t) == [0];
+
+        t = fo("f(b, c)", l);
+        assert automaton.match(t).contains(2) && automaton.bindings(2, t) == null;
+        assert automatonMatches(automaton, lhss, t) == [0];
+
+        // subterms only inspected by variables are skipped, but bound.
+        t = fo("h(f(g(a), k(b, g(c))), c)", l);
+        assert automatonMatches(automaton, lhss, t) == [5];
+        assert automaton.bindings(5, t)[0] == t.arg(0);
+
+        assert automatonMatches(automaton, lhss, fo("h(f(a, a), d)", l)) == [];
+        assert automatonMatches(automaton, lhss, fo("g(f(a, a))", l)) == [];
+
+        // patterns with lambdas are not compiled and always reported.
+        def hoParse = { String s -> TermParserBuilder.HO_BUILDER.parser(l, isUpperVar).parse(s) };
+
+        List<Term> holhss = [hoParse("F (\\x.x)"), hoParse("g X"), hoParse("\\x.g x")];
+        MatchingAutomaton hoAutomaton = new MatchingAutomaton(holhss);
+
+        assert hoAutomaton.isCompiled(1) && !hoAutomaton.isCompiled(0) && !hoAutomaton.isCompiled(2);
+
+        assert hoAutomaton.match(hoParse("h a")) as List == [0, 2];
+        assert automatonMatches(hoAutomaton, holhss, hoParse("h a")) == [];
+        assert automatonMatches(hoAutomaton, holhss, hoParse("g (\\y.y)")) == [0, 1];
+        assert automatonMatches(hoAutomaton, holhss, hoParse("\\y.g y")) == [2];
+    }
+
+    void testParallelNormalize() {
+        String rules = "plus(X, 0) -> X " +
+                "plus(X, s(Y)) -> s(plus(X, Y)) " +
+                "times(X, 0) -> 0 " +
+                "times(X, s(Y)) -> plus(X, times(X, Y))";
+
+        String term = "h(" + math("tuple", math("times", 3, 4), math("times", 2, 5),
+                math("plus", 7, 1), math("times", 3, 4), math("times", 1, 1)) + ")";
+
+        // each thread uses its own TRS
+        ParallelNormalizer normalizer = new ParallelNormalizer(ForkJoinPool.commonPool(),
+                { new TRS.TRSParser(new Lexer(), isUpperVar).parse(rules) } as Supplier<TermFn>, 2);
+
+        TermList l = new TermList();
+        Term t = fo(term, l);
+
+        Term nf = normalizer.normalize(t);
+
+        assert nf.parent == l;
+        assert t.resolveLinks() == nf;
+        assert nf.toString().equals(fo(term, null)
+                .normalize(new TRS.TRSParser(new Lexer(), isUpperVar).parse(rules)).toString());
+        assert nf.arg(0).arg(0) == nf.arg(0).arg(3) // hash-consed after merging
+
+        // a reduct that contains the redex is a cycle, like in Term.normalize.
+        String cyclic = "f(X, Y) -> g(h(f(X, Y)), k(X))";
+        TermFn cyclicFn = new TRS.TRSParser(new Lexer(), isUpperVar).parse(cyclic);
+
+        try {
+            fo("f(a, b)", null).normalize(cyclicFn);
+            assert false;
+        } catch(CycleException ignored) {}
+
+        try {
+            new ParallelNormalizer(ForkJoinPool.commonPool(), { cyclicFn } as Supplier<TermFn>, 2)
+                    .normalize(fo("f(a, b)", null));
+            assert false;
+        } catch(CycleException ignored) {}
+    }
+
+    void testTrail() {
+        TermList l = new TermList();
+
+        Term s = fo("f(X, g(Y), Z)", l);
+        Term t = fo("f(a, W, h(W))", l);
+
+        Trail trail = new Trail();
+
+        assert s.unify(t, trail);
+        assert l.insert(s) == fo("f(a, g(Y), h(g(Y)))", l);
+
+        int checkpoint = trail.size();
+
+        // backtrack over a binding that was made after the checkpoint.
+        assert fo("Y", l).unify(fo("b", l), trail);
+        assert !fo("W", l).unify(fo("c", l), trail);
+        assert l.insert(s) == fo("f(a, g(b), h(g(b)))", l);
+
+        trail.undo(checkpoint);
+        assert l.insert(s) == fo("f(a, g(Y), h(g(Y)))", l);
+
+        trail.clear();
+        assert s.link == null && fo("X", l).link == null && fo("W", l).link == null;
+
+        // clash in the last argument
+        assert !fo("f(X, Y, a)", l).match(fo("f(b, c, d)", l), trail);
+        assert trail.size() == 0 && fo("X", l).link == null;
+
+        // without a trail, a failed match is restored and a successful one is undone by unmatch.
+        Term p = fo("f(X, Y, a)", l);
+
+        assert !p.match(fo("f(b, c, d)", l));
+        assert fo("X", l).link == null && fo("X", l).mark == 0;
+
+        assert p.match(fo("f(b, c, a)", l));
+        assert fo("X", l).link == fo("b", l);
+
+        p.unmatch();
+        assert fo("X", l).link == null && fo("Y", l).link == null && p.mark == 0;
+    }
+
+    void testUnifier() {
+        TermList l = new TermList();
+
+        Unifier u = new Unifier(l);
+
+        // equations are solved together
+        u.add(fo("f(X, g(Y))", l), fo("f(g(Z), X)", l));
+        u.add(fo("h(Z)", l), fo("h(a)", l));
+
+        assert u.solve();
+        assert u.apply(fo("k(X, Y, Z)", l)) == fo("k(g(a), a, a)", l);
+
+        // occurs check
+        u.clear();
+        u.add(fo("X", l), fo("f(Y)", l));
+        u.add(fo("Y", l), fo("g(X)", l));
+        assert !u.solve();
+
+        u.clear();
+        u.add(fo("f(X, a)", l), fo("f(b, X)", l));
+        assert !u.solve();
+
+        // the cycle passes g(X) which is in no equation
+        u.clear();
+        u.add(fo("X", l), fo("f(g(X))", l));
+        assert !u.solve();
+
+        // clear drops the bindings of earlier equations
+        u.clear();
+        u.add(fo("Y", l), fo("b", l));
+        assert u.solve();
+        assert u.apply(fo("k(X, Y, Z)", l)) == fo("k(X, b, Z)", l);
+
+        // X40 and Y40 are terms with 2^40 paths.
+        Unifier v = new Unifier(l);
+
+        for(int i = 1; i <= 40; ++i) {
+            v.add(fo("p(X" + i + ")", l), fo("p(f(X" + (i - 1) + ", X" + (i - 1) + "))", l));
+            v.add(fo("Y" + i, l), fo("f(Y" + (i - 1) + ", Y" + (i - 1) + ")", l));
+        }
+
+        v.add(fo("X40", l), fo("Y40", l));
+        v.add(fo("Y0", l), fo("a", l));
+
+        assert v.solve();
+        assert v.apply(fo("X1", l)) == fo("f(a, a)", l);
+        assert v.apply(fo("X40", l)) == v.apply(fo("Y40", l));
+    }
+
+    void testSharedRules() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "plus(X, 0) -> X " +
+                "plus(X, s(Y)) -> s(plus(X, Y)) " +
+                "times(X, 0) -> 0 " +
+                "times(X, s(Y)) -> plus(X, times(X, Y)) " +
+                "eq(X, X) -> true"
+        );
+
+        // matching into a substitution does not touch the pattern
+        TermList rl = new TermList();
+        Term lhs = fo("f(X, g(X), Y)", rl);
+        Term subject = fo("f(a, g(a), b)", null);
+
+        Substitution sigma = new Substitution(rl);
+
+        assert lhs.match(subject, sigma);
+        assert sigma.size() == 2;
+        assert lhs.link == null && lhs.arg(0).link == null;
+        assert !lhs.match(fo("f(a, g(b), b)", subject.parent), new Substitution(rl));
+
+        String term = math("eq", math("times", math("plus", 3, 4), num(5)), math("plus", math("times", 5, 4), num(15)));
+
+        // one TRS is used by all threads at the same time.
+        def threads = (0..<4).collect {
+            def result = new String[1]
+            def thread = new Thread({
+                for(int i = 0; i < 20; ++i) {
+                    result[0] = fo(term, null).normalize(trs).toString();
+                }
+            })
+            thread.start()
+            [thread, result]
+        }
+
+        threads.each { it[0].join() }
+
+        threads.each { assert it[1][0].equals("true()") }
+    }
+
+    void testNormalFormCache() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "plus(X, 0) -> X " +
+                "plus(X, s(Y)) -> s(plus(X, Y)) " +
+                "times(X, 0) -> 0 " +
+                "times(X, s(Y)) -> plus(X, times(X, Y))"
+        );
+
+        NormalFormCache cache = new NormalFormCache(16);
+
+        String term = math("pair", math("times", 4, 5), math("plus", 2, 3));
+
+        Term nf1 = fo(term, null).normalize(trs, cache);
+
+        assert cache.size() > 0 && cache.size() <= 16;
+
+        // in a fresh list, the root is found in the cache.
+        long hits = cache.hits();
+
+        TermList l = new TermList();
+        Term t = fo(term, l);
+        Term nf2 = t.normalize(trs, cache);
+
+        assert cache.hits() == hits + 1;
+        assert nf2.parent == l && nf2.normalform && t.link == nf2;
+        assert nf1.toString().equals(nf2.toString());
+
+        // a subterm of a different term
+        Term u = fo("f(" + math("plus", 2, 3) + ")", l);
+        assert u.normalize(trs, cache) == fo("f(" + num(5) + ")", l);
+        assert cache.hits() == hits + 2;
+    }
+
+    void testNormalizeAll() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "plus(X, 0) -> X " +
+                "plus(X, s(Y)) -> s(plus(X, Y)) " +
+                "times(X, 0) -> 0 " +
+                "times(X, s(Y)) -> plus(X, times(X, Y))"
+        );
+
+        List<String> terms = [
+                math("plus", math("times", 3, 4), num(2)),
+                math("times", 3, 4),
+                "g(" + math("plus", 1, 1) + ", a)",
+                num(2),
+                math("times", math("times", 3, 4), num(2))
+        ];
+
+        TermList l = new TermList();
+        List<Term> roots = terms.collect { fo(it, l) };
+
+        List<Term> nfs = l.normalizeAll(roots, trs);
+
+        assert nfs.size() == terms.size();
+
+        for(int i = 0; i < terms.size(); ++i) {
+            Term nf = fo(terms[i], null).normalize(trs);
+            assert nfs[i].toString() == nf.toString();
+            assert nfs[i].parent == l && roots[i].normalize(trs) == nfs[i];
+        }
+    }
+
+    void testStreamingLoader() {
+        File rules = File.createTempFile("rules", ".trs");
+        File terms = File.createTempFile("terms", ".txt");
+
+        try {
+            rules.text = "plus(X, 0) -> X\n\n" +
+                    "plus(X, s(Y)) -> s(plus(X, Y))\r\n" +
+                    "times(X, 0) -> 0 times(X, s(Y)) -> plus(X, times(X, Y))\n";
+
+            terms.text = (1..20).collect { math("times", it % 4, 3) }.join("\n");
+
+            // a small window so that lines cross the end of the mapped region.
+            StreamingLoader loader = new StreamingLoader(isUpperVar, 16);
+
+            TRS trs = loader.loadTRS(rules.toPath());
+            assert trs.rules().size() == 4;
+
+            TermList l = new TermList();
+            List<Term> ts = [];
+            loader.readTerms(terms.toPath(), TermParserBuilder.FO_BUILDER, l, { ts.add(it) });
+
+            assert ts.size() == 20 && ts[0] == ts[4];
+            assert ts[1].normalize(trs) == fo(num(6), l);
+        } finally {
+            rules.delete();
+            terms.delete();
+        }
+    }
+
+    void testArithmetics() {
+        TermList l = new TermList();
+
+        // integer constants are hash-consed on their value, independent of how they were created.
+        assert ho("42", l) instanceof LongConst;
+        assert ho("42", l) == Const.create(l, 42) && ho("42", l) == BigConst.create(l, BigInteger.valueOf(42));
+        assert ho("123456789012345678901234567890", l) instanceof BigConst;
+
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse("sq(X) -> mul(X, X)");
+        Arithmetics fn = new Arithmetics(trs);
+
+        Term t = Fun.create(l, "sq", [Fun.create(l, "add", [Const.create(l, 3), Fun.create(l, "neg", [Const.create(l, -4)])])]);
+        assert t.normalize(fn) == LongConst.create(l, 49);
+
+        // overflow switches to BigInteger and back.
+        Term max = LongConst.create(l, Long.MAX_VALUE);
+        Term big = Fun.create(l, "sq", [max]).normalize(fn);
+        assert big instanceof BigConst && big.toString() == BigInteger.valueOf(Long.MAX_VALUE).pow(2).toString();
+        assert Fun.create(l, "div", [big, max]).normalize(fn) == max;
+
+        // division by 0 and other terms are not evaluated.
+        Term u = Fun.create(l, "add", [Fun.create(l, "div", [max, Const.create(l, 0)]), Const.create(l, "x")]);
+        assert u.normalize(fn) == u;
+    }
+
+    void testSnapshot() {
+        TermList l = new TermList();
+
+        // the tree of this term is exponential, the DAG is linear.
+        Term t = Const.create(l, "x");
+
+        for(int i = 0; i < 64; ++i) {
+            t = Fun.create(l, "pair", [t, t]);
+        }
+
+        Term n3 = ho("\\f.\\x.f (f (f x))", l);
+        Term plus = ho("\\m.\\n.\\f.\\x.m f (n f x)", l);
+        Term u = App.create(l, App.create(l, plus, n3), n3);
+        Term nf = u.normalize(betaFn);
+
+        Term v = Fun.create(l, "g", [Var.create(l, "X"), Const.create(l, 42), Const.create(l, new BigInteger("-123456789012345678901234567890"))]);
+
+        File file = File.createTempFile("termlist", ".snapshot");
+
+        try {
+            Snapshot.write(l, [t, u, v], file.toPath());
+
+            assert file.length() < 64 * l.size();
+
+            Snapshot s = Snapshot.read(file.toPath());
+
+            assert s.list.size() == l.size();
+            assert s.roots[1].toString() == u.toString();
+            assert s.roots[2].toString() == v.toString();
+
+            // links are kept, hence the normalform is found without rewriting.
+            Term w = s.roots[1];
+            while(w.link != null) w = w.link;
+            assert w.normalform && w.toString() == nf.toString();
+            assert s.roots[1].normalize(betaFn) == w;
+            assert s.list.size() == l.size();
+
+            // hash-consing works in the new list
+            Term t2 = s.roots[0];
+            assert Fun.create(s.list, "pair", [t2, t2]) != t2 && Fun.create(s.list, "pair", [t2.arg(0), t2.arg(0)]) == t2;
+        } finally {
+            file.delete();
+        }
+    }
+
+    void testRewriteMetrics() {
+        CTRS ctrs = new CTRS.CTRSParser(new Lexer(), isUpperVar).parse(
+                "lt(s(X), s(Y)) -> lt(X, Y) " +
+                "lt(0, s(X)) -> true " +
+                "lt(X, 0) -> false " +
+                "f(X) -> a <= lt(X, s(s(0))) -> true " +
+                "f(X) -> b <= lt(X, s(s(0))) -> false"
+        );
+
+        RewriteMetrics metrics = new RewriteMetrics();
+        ctrs.setListener(metrics);
+
+        TermList l = new TermList();
+        Term t = fo("g(f(s(0)), f(s(s(s(0)))))", l);
+
+        assert t.normalize(ctrs).toString() == "g(a(), b())";
+
+        Map<Integer, RewriteMetrics.RuleStats> rules = metrics.rules(ctrs);
+
+        // f(s(0)) -> a, f(s(s(s(0)))) fails for the first rule and then uses the second one.
+        assert rules[3].tried.sum() == 2 && rules[3].fired.sum() == 1 && rules[3].conditionsFailed.sum() == 1;
+        assert rules[4].tried.sum() == 1 && rules[4].fired.sum() == 1;
+        assert rules[3].successRatio() == 0.5;
+
+        // outer normalize and one per condition
+        assert metrics.normalizeNanos().count() == 4;
+        assert metrics.conditionNanos().count() == 3;
+        assert metrics.listGrowth() > 0 && metrics.maxListGrowth() <= metrics.listGrowth();
+
+        // without a listener, nothing is recorded.
+        ctrs.setListener(null);
+        fo("f(0)", l).normalize(ctrs);
+        assert metrics.normalizeNanos().count() == 4;
+    }
+
+    void testJfrEvents() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "plus(0, Y) -> Y " +
+                "plus(s(X), Y) -> s(plus(X, Y))"
+        );
+
+        trs.setListener(new JfrRewriteListener(2));
+
+        Recording recording = new Recording();
+        recording.enable("at.searles.terms.RewriteStep");
+        recording.enable("at.searles.terms.ListGrowth");
+        recording.enable("at.searles.terms.Normalize").withThreshold(java.time.Duration.ZERO);
+        recording.start();
+
+        TermList l = new TermList();
+        Term t = fo("plus(s(s(s(0))), 0)", l);
+
+        assert t.normalize(trs).toString() == "s(s(s(0())))";
+
+        recording.stop();
+
+        Path file = Files.createTempFile("terms", ".jfr");
+
+        try {
+            recording.dump(file);
+            def events = RecordingFile.readAllEvents(file).groupBy { it.eventType.name };
+
+            def steps = events["at.searles.terms.RewriteStep"];
+            assert steps.size() == 4;
+            assert steps.every { it.getString("rootSymbol") == "plus/2" };
+            assert steps.count { it.getInt("rule") == 0 } == 1;
+
+            // two checkpoints after 2 and 4 steps, one at the end.
+            assert events["at.searles.terms.ListGrowth"].size() == 3;
+            assert events["at.searles.terms.Normalize"].size() == 1;
+        } finally {
+            recording.close();
+            Files.delete(file);
+        }
+    }
+
+    void testOutermostNeeded() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "from(X) -> cons(X, from(s(X))) " +
+                "take(0, XS) -> nil " +
+                "take(s(N), nil) -> nil " +
+                "take(s(N), cons(X, XS)) -> cons(X, take(N, XS)) " +
+                "if(true, X, Y) -> X " +
+                "if(false, X, Y) -> Y " +
+                "and(false, X) -> false " +
+                "and(true, X) -> X " +
+                "loop -> loop"
+        );
+
+        OutermostNeeded on = new OutermostNeeded(trs);
+
+        TermList l = new TermList();
+
+        Term t = fo("take(s(s(0)), from(0))", l);
+        Term nf = on.normalize(t);
+
+        assert nf == fo("cons(0, cons(s(0), nil))", l);
+        assert t.resolveLinks() == nf && nf.normalform;
+
+        assert on.normalize(fo("if(and(true, false), loop, pair(take(s(0), from(s(0))), 0))", l)) == fo("pair(cons(s(0), nil), 0)", l);
+
+        try {
+            on.normalize(fo("and(true, loop)", l));
+            assert false;
+        } catch(CycleException ignored) {}
+
+        // a TermFn sees every step and can stop the normalization
+        int steps = 0;
+        TermFn counting = { Term u, TermList target ->
+            if(steps == 100) throw new IllegalStateException();
+            Term v = trs.apply(u, target);
+            if(v != null) steps++;
+            return v;
+        } as TermFn;
+
+        TermList l2 = new TermList();
+        Term t2 = fo("take(s(s(0)), from(0))", l2);
+
+        assert new OutermostNeeded(trs, counting).normalize(t2) == l2.insert(nf);
+        assert steps == 5;
+
+        try {
+            new OutermostNeeded(trs, counting).normalize(fo("from(0)", l));
+            assert false;
+        } catch(IllegalStateException ignored) {}
+
+        assert steps == 100;
+
+        try {
+            new OutermostNeeded(new TRS.TRSParser(new Lexer(), isUpperVar).parse("f(g(X)) -> X g(a) -> b"));
+            assert false;
+        } catch(IllegalArgumentException ignored) {}
+    }
+
+    void testRootFailures() {
+        TRS trs = new TRS.TRSParser(new Lexer(), isUpperVar).parse(
+                "f(X, a, Y) -> r1 " +
+                "f(X, X, Y) -> r2"
+        );
+
+        TermList l = new TermList();
+
+        // the automaton rules out the first rule, the non-linear one fails.
+        Term t = fo("f(c, d, e)", l);
+
+        assert trs.apply(t, l) == null;
+        assert t.failures(trs) == BitSet.valueOf([2L] as long[]);
+
+        // subtermDag tries the root before the args, then transfers the failures to the rebuilt term.
+        // X is seen by the second rule, Y is not.
+        TRS withG = new TRS(trs.rules() + new TRS.TRSParser(new Lexer(), isUpperVar).parse("g(X) -> X").rules());
+
+        List<List<Object>> tried = [];
+        withG.setListener(new RewriteListener() {
+            @Override
+            void ruleTried(TermFn fn, int rule, Term u, boolean fired, long nanos) {
+                tried.add([rule, u]);
+            }
+        });
+
+        Term u = TermFn.subtermDag(withG, fo("f(c, d, g(e))", l), l);
+
+        assert u == fo("f(c, d, e)", l);
+        assert tried == [[1, fo("f(c, d, g(e))", l)], [2, fo("g(e)", l)]];
+        assert u.failures(withG) == BitSet.valueOf([2L] as long[]);
+
+        // the second run does not try the second rule again.
+        tried.clear();
+        assert TermFn.subtermDag(withG, u, l) == null;
+        assert tried.isEmpty();
+
+        // here, the failure depends on the rewritten arg, hence the second rule is tried again.
+        tried.clear();
+        u = TermFn.subtermDag(withG, fo("f(d, g(d), e)", l), l);
+
+        assert u == fo("f(d, d, e)", l);
+        assert u.failures(withG) == null;
+
+        tried.clear();
+        assert TermFn.subtermDag(withG, u, l) == fo("r2", l);
+        assert tried == [[1, fo("f(d, d, e)", l)]];
+
+        assert fo("h(f(c, d, h(c)), f(d, d, h(e)))", l).normalize(trs) == fo("h(f(c, d, h(c)), r2)", l);
+    }
+
     static final TermFn betaFn = new TermFn() {
         @Override
         Term apply(Term t, TermList target) {
@@ -522,7 +1343,7 @@ class TermListTest extends GroovyTestCase {
         // replaces all f-rooted terms by a bot.
         TermFn con = new TermFn() {
             public Term apply(Term t, TermList target) {
-                if (t instanceof Fun && (((Fun) t).f.equals("f"))) {
+                if (t instanceof Fun && (((Fun) t).f.name.equals("f"))) {
                     return Const.create(target, "bot");
                 } else {
                     return null
@@ -6,6 +6,7 @@ import at.searles.parsing.parser.Parser;
 import at.searles.parsing.parser.Rep;
 import at.searles.parsing.regex.Lexer;
 
+import java.math.BigInteger;
 import java.util.*;
 import java.util.function.Function;
 
@@ -78,7 +79,7 @@ public interface TermParserBuilder {
 				this.expr = new Parser.PostInit<>();
 
 				// Now for the parsers
-				Parser<Term> integer = num.map(i -> Const.create(list, i));
+				Parser<Term> integer = num.map(i -> BigConst.create(list, new BigInteger(i)));
 
 				Parser<Term> var = id.then(openarg.thenRight(
 						// comma separated list
@@ -103,7 +104,7 @@ public interface TermParserBuilder {
 									args.addAll(s.b.get().get().b.asList());
 								}
 
-								return Fun.create(list, s.a, args);
+								return Fun.create(list, Signature.DEFAULT.symbol(s.a, args.size()), args);
 							}
 						});
 
@@ -218,7 +219,7 @@ public interface TermParserBuilder {
 				this.expr = new Parser.PostInit<>();
 
 				// Now for the parsers
-				Parser<Term> integer = num.map(i -> Fun.create(list, i, Collections.emptyList()));
+				Parser<Term> integer = num.map(i -> Fun.create(list, Signature.DEFAULT.symbol(i, 0), Collections.emptyList()));
 
 				// argument list
 				Parser<List<Term>> args = openpar.thenRight(expr.then(comma.thenRight(expr).rep(true)).opt()).thenLeft(closepar).map(
@@ -235,12 +236,12 @@ public interface TermParserBuilder {
 
 				// variables like "x" but also "f(...)".
 				Parser<Term> var = id.then(args.opt()).map(
-						s -> s.b.isDef ? Fun.create(list, s.a, s.b.get()) : (isVar.apply(s.a) ? Var.create(list, s.a) : Fun.create(list, s.a, Collections.emptyList()))
+						s -> s.b.isDef ? fun(s.a, s.b.get()) : (isVar.apply(s.a) ? Var.create(list, s.a) : fun(s.a, Collections.emptyList()))
 				);
 
 				// everything else, eg single symbols like +, but also +(a,b)
 				Parser<Term> fun = sym.then(args.opt()).map(
-						s -> s.b.isDef ? Fun.create(list, s.a, s.b.get()) : Fun.create(list, s.a, Collections.emptyList())
+						s -> s.b.isDef ? fun(s.a, s.b.get()) : fun(s.a, Collections.emptyList())
 				);
 
 				/**
@@ -251,6 +252,13 @@ public interface TermParserBuilder {
 				expr.set(term);
 			}
 
+			/**
+			 * Creates a fun-term. The symbol is interned in the signature.
+			 */
+			private Term fun(String f, List<Term> args) {
+				return Fun.create(list, Signature.DEFAULT.symbol(f, args.size()), args);
+			}
+
 			@Override
 			public Term parse(Buffer buf) {
 				// parse only builds up the tree.
@@ -0,0 +1,631 @@
+package at.searles.terms;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Alternative storage for large DAGs. Instead of one object per node, nodes are stored in
+ * primitive columns and are addressed by int handles. Like in TermList, terms are hash-consed and
+ * args always have a smaller handle than their superterms.
+ *
+ * TermFns that implement HandleFn (eg TRS) rewrite directly on handles, hence normalize does not
+ * create any term objects for them. For all other TermFns, a View materializes the part of the store
+ * that is needed as terms in a scratch termlist. Results are put back into the store.
+ * Lambda variables in a store are always bound inside the store, ie their scope is the store itself.
+ */
+public class TermStore {
+
+	/**
+	 * A function on the nodes of a store.
+	 */
+	@FunctionalInterface
+	public interface HandleFn {
+		/**
+		 * @return the handle of the result in store or -1 if the function is not applicable at h.
+		 */
+		int apply(TermStore store, int h);
+	}
+
+	public static final int FUN = 0;
+	public static final int APP = 1;
+	public static final int LAMBDA = 2;
+	public static final int VAR = 3;
+	public static final int CONST = 4;
+	public static final int LAMBDAVAR = 5;
+
+	private static final int KIND_MASK = 0xff;
+	private static final int NORMALFORM = 0x100;
+
+	// columns
+	private int[] kinds = new int[64]; // kind and flags
+	private int[] data = new int[64]; // symbol id, var id, const id or lambda index.
+	private int[] argStart = new int[65]; // args of h are argPool[argStart[h] .. argStart[h + 1]]
+	private int[] links = new int[64]; // -1 if not set
+
+	private int[] argPool = new int[128];
+
+	private int size = 0;
+
+	// open addressing with linear probing. Entries are handle + 1, 0 is empty.
+	private int[] table = new int[128];
+
+	// tables for non-int payloads
+	private final ArrayList<String> varIds = new ArrayList<>();
+	private final HashMap<String, Integer> varIndices = new HashMap<>();
+	private final ArrayList<Object> constants = new ArrayList<>();
+	private final HashMap<Object, Integer> constIndices = new HashMap<>();
+
+	public int size() {
+		return size;
+	}
+
+	public int kind(int h) {
+		return kinds[h] & KIND_MASK;
+	}
+
+	public int arity(int h) {
+		return argStart[h + 1] - argStart[h];
+	}
+
+	public int arg(int h, int i) {
+		return argPool[argStart[h] + i];
+	}
+
+	/**
+	 * Returns the symbol of a FUN-node
+	 * @param h
+	 * @return
+	 */
+	public Symbol symbol(int h) {
+		return Signature.DEFAULT.get(data[h]);
+	}
+
+	/**
+	 * Returns the name of a VAR-node
+	 * @param h
+	 * @return
+	 */
+	public String varId(int h) {
+		return varIds.get(data[h]);
+	}
+
+	/**
+	 * Returns the value of a CONST-node
+	 * @param h
+	 * @return
+	 */
+	public Object value(int h) {
+		return constants.get(data[h]);
+	}
+
+	/**
+	 * Returns the debruijn index of a LAMBDAVAR-node
+	 * @param h
+	 * @return
+	 */
+	public int lambdaIndex(int h) {
+		return data[h];
+	}
+
+	public int link(int h) {
+		return links[h];
+	}
+
+	public void setLink(int h, int target) {
+		links[h] = target;
+	}
+
+	public boolean isNormalform(int h) {
+		return (kinds[h] & NORMALFORM) != 0;
+	}
+
+	public void setNormalform(int h) {
+		kinds[h] |= NORMALFORM;
+	}
+
+	/**
+	 * Follows the link-chain starting at h.
+	 * @param h
+	 * @return the last handle in the chain.
+	 */
+	public int resolve(int h) {
+		while(links[h] != -1) h = links[h];
+		return h;
+	}
+
+	public int fun(Symbol f, int...args) {
+		if(f.arity != args.length) throw new IllegalArgumentException("arity of " + f + " does not match");
+		return findOrAppend(FUN, f.id, args);
+	}
+
+	public int app(int l, int r) {
+		return findOrAppend(APP, 0, l, r);
+	}
+
+	public int lambda(int body) {
+		return findOrAppend(LAMBDA, 0, body);
+	}
+
+	public int var(String id) {
+		Integer index = varIndices.get(id);
+
+		if(index == null) {
+			index = varIds.size();
+			varIds.add(id);
+			varIndices.put(id, index);
+		}
+
+		return findOrAppend(VAR, index);
+	}
+
+	public int constant(Object value) {
+		Integer index = constIndices.get(value);
+
+		if(index == null) {
+			index = constants.size();
+			constants.add(value);
+			constIndices.put(value, index);
+		}
+
+		return findOrAppend(CONST, index);
+	}
+
+	public int lambdaVar(int index) {
+		return findOrAppend(LAMBDAVAR, index);
+	}
+
+	private static int hash(int kind, int datum, int[] args) {
+		int h = 31 * kind + datum;
+
+		for(int arg : args) {
+			h = 31 * h + arg;
+		}
+
+		return h ^ (h >>> 16);
+	}
+
+	private boolean eq(int h, int kind, int datum, int[] args) {
+		if((kinds[h] & KIND_MASK) != kind || data[h] != datum || arity(h) != args.length) return false;
+
+		for(int i = 0; i < args.length; ++i) {
+			if(arg(h, i) != args[i]) return false;
+		}
+
+		return true;
+	}
+
+	private int findOrAppend(int kind, int datum, int...args) {
+		int mask = table.length - 1;
+
+		int i = hash(kind, datum, args) & mask;
+
+		for(; table[i] != 0; i = (i + 1) & mask) {
+			if(eq(table[i] - 1, kind, datum, args)) return table[i] - 1;
+		}
+
+		for(int arg : args) {
+			if(arg < 0 || arg >= size) throw new IllegalArgumentException("invalid handle " + arg);
+		}
+
+		// append
+		if(size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			data = Arrays.copyOf(data, capacity);
+			links = Arrays.copyOf(links, capacity);
+			argStart = Arrays.copyOf(argStart, capacity + 1);
+		}
+
+		int start = argStart[size];
+
+		if(start + args.length > argPool.length) {
+			argPool = Arrays.copyOf(argPool, Math.max(argPool.length * 2, start + args.length));
+		}
+
+		System.arraycopy(args, 0, argPool, start, args.length);
+
+		int h = size++;
+
+		kinds[h] = kind;
+		data[h] = datum;
+		links[h] = -1;
+		argStart[h + 1] = start + args.length;
+
+		table[i] = h + 1;
+
+		if(size > table.length >> 1) {
+			rehash();
+		}
+
+		return h;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+
+		int mask = table.length - 1;
+
+		int[] args = new int[0];
+
+		for(int h = 0; h < size; ++h) {
+			if(args.length != arity(h)) args = new int[arity(h)];
+
+			for(int k = 0; k < args.length; ++k) args[k] = arg(h, k);
+
+			int i = hash(kinds[h] & KIND_MASK, data[h], args) & mask;
+
+			while(table[i] != 0) i = (i + 1) & mask;
+
+			table[i] = h + 1;
+		}
+	}
+
+	/**
+	 * Returns the node for a Fun, App, Var or Const with the given args.
+	 */
+	private int firstOrder(Term t, int[] args) {
+		if(t instanceof Fun) {
+			return fun(((Fun) t).symbol(), args);
+		} else if(t instanceof App) {
+			return app(args[0], args[1]);
+		} else if(t instanceof Var) {
+			return var(((Var) t).id);
+		} else if(t instanceof Const) {
+			return constant(((Const<?>) t).value());
+		} else {
+			throw new IllegalArgumentException("not a first order term: " + t);
+		}
+	}
+
+	/**
+	 * Puts a pattern into this store, replacing vars by the given handles. Other variables are
+	 * put into the store as they are. This is used to build the rhs of a rule without
+	 * creating terms.
+	 * @param pattern a term that consists only of Fun, App, Var and Const nodes.
+	 * @param vars
+	 * @param binding handles for vars
+	 * @return the handle of the instance
+	 */
+	public int instantiate(Term pattern, Var[] vars, int[] binding) {
+		IdentityHashMap<Term, Integer> handles = new IdentityHashMap<>();
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(pattern);
+
+		while(!stack.isEmpty()) {
+			Term u = stack.peek();
+
+			if(handles.containsKey(u)) {
+				stack.pop();
+				continue;
+			}
+
+			if(u instanceof Var) {
+				stack.pop();
+
+				int h = -1;
+
+				for(int i = 0; i < vars.length; ++i) {
+					if(vars[i] == u) h = binding[i];
+				}
+
+				handles.put(u, h != -1 ? h : var(((Var) u).id));
+				continue;
+			}
+
+			boolean ready = true;
+
+			for(int i = u.arity() - 1; i >= 0; --i) {
+				if(!handles.containsKey(u.arg(i))) {
+					stack.push(u.arg(i));
+					ready = false;
+				}
+			}
+
+			if(!ready) continue;
+
+			stack.pop();
+
+			int[] args = new int[u.arity()];
+
+			for(int i = 0; i < args.length; ++i) {
+				args[i] = handles.get(u.arg(i));
+			}
+
+			handles.put(u, firstOrder(u, args));
+		}
+
+		return handles.get(pattern);
+	}
+
+	/**
+	 * Normalizes h innermost. The normalform is in this store and h is linked to it. Subterms
+	 * are linked to their normalforms as well.
+	 *
+	 * If fn is a HandleFn, it is applied directly on the nodes of this store. Otherwise, the
+	 * DAG below h is materialized in a scratch list that is dropped after this call, hence it
+	 * temporarily needs the memory of a TermList.
+	 * @param h
+	 * @param fn
+	 * @return the handle of the normalform.
+	 * @throws CycleException if a term is rewritten to a term that contains it.
+	 */
+	public int normalize(int h, TermFn fn) {
+		h = resolve(h);
+
+		if(isNormalform(h)) return h;
+
+		if(fn instanceof HandleFn) return normalizeHandles(h, (HandleFn) fn);
+
+		View view = new View();
+
+		int r = view.put(view.get(h).normalize(fn));
+
+		if(r != h) setLink(h, r);
+
+		return r;
+	}
+
+	/**
+	 * Applies fn at the root of h. Like in normalize, the scratch list for TermFns that are
+	 * not HandleFns is dropped after this call.
+	 * @return the handle of the result or -1 if fn is not applicable.
+	 */
+	public int apply(int h, TermFn fn) {
+		if(fn instanceof HandleFn) return ((HandleFn) fn).apply(this, h);
+
+		View view = new View();
+
+		Term u = fn.apply(view.get(h), view.list);
+
+		return u == null ? -1 : view.put(u);
+	}
+
+	private int normalizeHandles(int h, HandleFn fn) {
+		// handles whose args are currently normalized. Reaching one of them again is a cycle.
+		BitSet pending = new BitSet();
+
+		int[] stack = new int[16];
+		int top = 0;
+
+		stack[top++] = h;
+
+		while(top > 0) {
+			int u = resolve(stack[top - 1]);
+
+			if(isNormalform(u)) {
+				top--;
+				continue;
+			}
+
+			boolean ready = true;
+
+			for(int i = arity(u) - 1; i >= 0; --i) {
+				int arg = resolve(arg(u, i));
+
+				if(!isNormalform(arg)) {
+					if(arg == u || pending.get(arg)) throw cycle(arg);
+
+					if(top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+
+					stack[top++] = arg;
+					ready = false;
+				}
+			}
+
+			if(!ready) {
+				pending.set(u);
+				continue;
+			}
+
+			pending.clear(u);
+
+			// replace args by their normalforms
+			int v = rebuild(u);
+
+			if(v != u) {
+				setLink(u, v);
+				u = v;
+
+				if(isNormalform(u)) continue;
+			}
+
+			int r = fn.apply(this, u);
+
+			if(r == -1) {
+				setNormalform(u);
+				top--;
+				continue;
+			}
+
+			int w = resolve(r);
+
+			if(w == u || pending.get(w)) throw cycle(u);
+
+			setLink(u, r);
+		}
+
+		return resolve(h);
+	}
+
+	/**
+	 * Returns the node with the same kind and datum as h whose args are the resolved args of h.
+	 */
+	private int rebuild(int h) {
+		int[] args = null;
+
+		for(int i = 0; i < arity(h); ++i) {
+			int arg = resolve(arg(h, i));
+
+			if(args == null && arg != arg(h, i)) {
+				args = new int[arity(h)];
+
+				for(int k = 0; k < i; ++k) args[k] = arg(h, k);
+			}
+
+			if(args != null) args[i] = arg;
+		}
+
+		return args == null ? h : findOrAppend(kind(h), data[h], args);
+	}
+
+	private CycleException cycle(int h) {
+		return new CycleException(new View().get(h));
+	}
+
+	/**
+	 * Creates a new view on this store.
+	 * @return
+	 */
+	public View view() {
+		return new View();
+	}
+
+	/**
+	 * A view materializes parts of the store as terms in a scratch termlist and puts terms back into the
+	 * store. Both directions are cached and the scratch list is never cleared, thus a view should only be
+	 * used for related operations and dropped afterwards so that the scratch list can be garbage collected.
+	 * For rewriting, use TermStore.normalize and TermStore.apply.
+	 */
+	public class View {
+		public final TermList list = new TermList();
+
+		private Term[] terms = new Term[16]; // by handle
+		private int[] handles = new int[16]; // handle + 1 by term index, 0 if unknown.
+
+		/**
+		 * Returns the term for the handle h in the scratch list. Only the DAG below h
+		 * is materialized. Links are not transferred, normalform-flags are.
+		 * @param h
+		 * @return
+		 */
+		public Term get(int h) {
+			if(terms.length < size) terms = Arrays.copyOf(terms, Math.max(terms.length * 2, size));
+
+			ArrayDeque<Integer> stack = new ArrayDeque<>();
+			stack.push(h);
+
+			ArrayList<Term> args = new ArrayList<>();
+
+			while(!stack.isEmpty()) {
+				int u = stack.peek();
+
+				if(terms[u] != null) {
+					stack.pop();
+					continue;
+				}
+
+				boolean ready = true;
+
+				for(int i = arity(u) - 1; i >= 0; --i) {
+					if(terms[arg(u, i)] == null) {
+						stack.push(arg(u, i));
+						ready = false;
+					}
+				}
+
+				if(!ready) continue;
+
+				stack.pop();
+
+				args.clear();
+
+				for(int i = 0; i < arity(u); ++i) {
+					args.add(terms[arg(u, i)]);
+				}
+
+				Term t;
+
+				switch(kind(u)) {
+					case FUN: t = Fun.create(list, symbol(u), args); break;
+					case APP: t = App.create(list, args.get(0), args.get(1)); break;
+					case LAMBDA: t = Lambda.create(list, args.get(0)); break;
+					case VAR: t = Var.create(list, varId(u)); break;
+					case CONST: t = Const.create(list, value(u)); break;
+					case LAMBDAVAR: t = LambdaVar.create(list, lambdaIndex(u), list); break;
+					default: throw new IllegalArgumentException();
+				}
+
+				if(isNormalform(u)) t.normalform = true;
+
+				terms[u] = t;
+				remember(t, u);
+			}
+
+			return terms[h];
+		}
+
+		private void remember(Term t, int h) {
+			if(handles.length <= t.index) handles = Arrays.copyOf(handles, Math.max(handles.length * 2, t.index + 1));
+			handles[t.index] = h + 1;
+		}
+
+		/**
+		 * Puts t into the store. Links in t are not followed, normalform-flags are transferred.
+		 * @param t a term in the scratch list.
+		 * @return the handle of t.
+		 */
+		public int put(Term t) {
+			if(t.parent != list) throw new IllegalArgumentException("term must be in the list of this view");
+
+			ArrayDeque<Term> stack = new ArrayDeque<>();
+			stack.push(t);
+
+			while(!stack.isEmpty()) {
+				Term u = stack.peek();
+
+				if(handle(u) != -1) {
+					stack.pop();
+					continue;
+				}
+
+				boolean ready = true;
+
+				for(int i = u.arity() - 1; i >= 0; --i) {
+					if(handle(u.arg(i)) == -1) {
+						stack.push(u.arg(i));
+						ready = false;
+					}
+				}
+
+				if(!ready) continue;
+
+				stack.pop();
+
+				int[] args = new int[u.arity()];
+
+				for(int i = 0; i < args.length; ++i) {
+					args[i] = handle(u.arg(i));
+				}
+
+				int h;
+
+				if(u instanceof Lambda) {
+					h = lambda(args[0]);
+				} else if(u instanceof LambdaVar) {
+					if(((LambdaVar) u).scope != list) throw new IllegalArgumentException("lambda variable of other scope");
+					h = lambdaVar(((LambdaVar) u).index);
+				} else {
+					h = firstOrder(u, args);
+				}
+
+				if(u.normalform) setNormalform(h);
+
+				if(terms.length <= h) terms = Arrays.copyOf(terms, Math.max(terms.length * 2, h + 1));
+				if(terms[h] == null) terms[h] = u;
+
+				remember(u, h);
+			}
+
+			return handle(t);
+		}
+
+		private int handle(Term t) {
+			return t.index < handles.length ? handles[t.index] - 1 : -1;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package at.searles.terms;
+
+import java.util.Arrays;
+
+/**
+ * Records the terms whose link-field (and mark) was set by match(Term, Trail) or unify(Term, Trail).
+ * Undoing bindings then only costs the number of bindings that were made instead of another walk
+ * over the terms or over the whole termlist (see TermList.clearMatcher).
+ *
+ * The size of the trail is used as checkpoint, so that backtracking only resets the bindings
+ * that were added after the checkpoint was taken.
+ */
+public class Trail {
+
+	private Term[] terms = new Term[16];
+
+	// whether the link or only the mark of the corresponding term was set.
+	private boolean[] linked = new boolean[16];
+	private int size = 0;
+
+	/**
+	 * Sets the link of t to u and records t.
+	 * @param t a term whose link is null.
+	 * @param u
+	 */
+	void link(Term t, Term u) {
+		t.link = u;
+		push(t, true);
+	}
+
+	/**
+	 * Sets the mark of t and records it. This is only used for unmatch and ununify.
+	 */
+	void mark(Term t) {
+		if(t.mark == 0) {
+			t.mark = 1;
+			push(t, false);
+		}
+	}
+
+	private void push(Term t, boolean link) {
+		if(size == terms.length) {
+			terms = Arrays.copyOf(terms, size * 2);
+			linked = Arrays.copyOf(linked, size * 2);
+		}
+
+		linked[size] = link;
+		terms[size++] = t;
+	}
+
+	/**
+	 * @return the number of recorded terms. It can be used as checkpoint for undo.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Resets the links and marks that were recorded after the checkpoint was taken.
+	 * @param checkpoint a value returned by size()
+	 */
+	public void undo(int checkpoint) {
+		while(size > checkpoint) {
+			Term t = terms[--size];
+			terms[size] = null;
+
+			if(linked[size]) {
+				t.link = null;
+			} else {
+				t.mark = 0;
+			}
+		}
+	}
+
+	/**
+	 * Drops the records after the checkpoint without resetting the links and marks of the terms.
+	 * @param checkpoint a value returned by size()
+	 */
+	void forget(int checkpoint) {
+		Arrays.fill(terms, checkpoint, size, null);
+		size = checkpoint;
+	}
+
+	/**
+	 * Resets all recorded terms.
+	 */
+	public void clear() {
+		undo(0);
+	}
+}
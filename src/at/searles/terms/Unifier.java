@@ -0,0 +1,355 @@
+package at.searles.terms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Unification of sets of equations over the terms of one termlist using union-find
+ * (Huet's algorithm). Terms are hash-consed, hence each shared subterm is a single node and
+ * is put into a class at most once. Classes are addressed by the index of terms and merged
+ * using union by rank and path compression. This makes unification close to linear in the
+ * number of nodes, also for DAGs with much sharing on which the recursive unify(Term) is exponential.
+ *
+ * Unlike unify(Term), there is an occurs check: it is done once after all equations were
+ * solved by checking that the classes are acyclic.
+ *
+ * Like in match, lambdas and lambda variables are only unifiable with themselves. The list
+ * must not be compacted while a unifier is in use.
+ */
+public class Unifier {
+
+	private final TermList list;
+
+	// union-find over indices. Roots are the indices with find(i) == i.
+	private int[] parents;
+	private int[] ranks;
+
+	// for each root, the index of a non-variable term in its class or -1.
+	private int[] schemes;
+
+	// indices whose scheme was initialized. Only these are part of a class with other terms
+	// or were modified at all, hence clear and the occurs check only look at them.
+	private int[] touched = new int[16];
+	private int touchedCount = 0;
+
+	// pending equations as pairs of indices.
+	private int[] equations = new int[16];
+	private int pending = 0;
+
+	private boolean failed = false;
+	private boolean checked = true;
+
+	public Unifier(TermList list) {
+		this.list = list;
+
+		int capacity = 16;
+
+		this.parents = new int[capacity];
+		this.ranks = new int[capacity];
+		this.schemes = new int[capacity];
+
+		for(int i = 0; i < capacity; ++i) {
+			parents[i] = i;
+			schemes[i] = -2; // not initialized
+		}
+	}
+
+	private void grow(int index) {
+		if(index < parents.length) return;
+
+		int oldLength = parents.length;
+		int length = Math.max(oldLength * 2, index + 1);
+
+		parents = Arrays.copyOf(parents, length);
+		ranks = Arrays.copyOf(ranks, length);
+		schemes = Arrays.copyOf(schemes, length);
+
+		for(int i = oldLength; i < length; ++i) {
+			parents[i] = i;
+			schemes[i] = -2;
+		}
+	}
+
+	private void check(Term t) {
+		if(t.parent != list) throw new IllegalArgumentException(t + " is not in the list of this unifier");
+	}
+
+	private int find(int i) {
+		int root = i;
+
+		while(parents[root] != root) {
+			root = parents[root];
+		}
+
+		// path compression
+		while(parents[i] != root) {
+			int next = parents[i];
+			parents[i] = root;
+			i = next;
+		}
+
+		return root;
+	}
+
+	private int scheme(int root) {
+		if(schemes[root] == -2) {
+			// a singleton class. Its scheme is the term itself unless it is a variable.
+			schemes[root] = list.node(root) instanceof Var ? -1 : root;
+
+			if(touchedCount == touched.length) {
+				touched = Arrays.copyOf(touched, touchedCount * 2);
+			}
+
+			touched[touchedCount++] = root;
+		}
+
+		return schemes[root];
+	}
+
+	/**
+	 * Adds the equation s = t. Equations are solved in solve.
+	 * @param s
+	 * @param t
+	 */
+	public void add(Term s, Term t) {
+		check(s);
+		check(t);
+
+		grow(Math.max(s.index, t.index));
+
+		push(s.index, t.index);
+		checked = false;
+	}
+
+	private void push(int i, int j) {
+		if(pending + 2 > equations.length) {
+			equations = Arrays.copyOf(equations, equations.length * 2);
+		}
+
+		equations[pending++] = i;
+		equations[pending++] = j;
+	}
+
+	/**
+	 * Solves all equations that were added so far. Further equations can be added
+	 * afterwards; they are solved together with the existing solution.
+	 * @return false if the equations have no unifier. In this case, the unifier stays
+	 * unsolvable until clear is called.
+	 */
+	public boolean solve() {
+		while(!failed && pending > 0) {
+			int j = equations[--pending];
+			int i = equations[--pending];
+
+			int a = find(i);
+			int b = find(j);
+
+			if(a == b) continue;
+
+			int sa = scheme(a);
+			int sb = scheme(b);
+
+			// union by rank. The scheme of the merged class is a non-variable term if there is one.
+			if(ranks[a] < ranks[b]) {
+				int tmp = a; a = b; b = tmp;
+			}
+
+			parents[b] = a;
+
+			if(ranks[a] == ranks[b]) ranks[a]++;
+
+			schemes[a] = sa != -1 ? sa : sb;
+
+			if(sa != -1 && sb != -1) {
+				Term s = list.node(sa);
+				Term t = list.node(sb);
+
+				if(!s.auxMatch(t)) {
+					failed = true;
+					break;
+				}
+
+				for(int k = s.arity() - 1; k >= 0; --k) {
+					push(s.arg(k).index, t.arg(k).index);
+				}
+			}
+		}
+
+		if(!failed && !checked) {
+			failed = !acyclic();
+			checked = true;
+		}
+
+		return !failed;
+	}
+
+	/**
+	 * Occurs check. The classes are acyclic if no class is reachable from itself following
+	 * the args of the schemes. A cycle must contain a class with more than one term, hence
+	 * it is enough to start from the touched roots.
+	 */
+	private boolean acyclic() {
+		// absent = unvisited, TRUE = on stack, FALSE = done.
+		TermList.IndexMap states = list.acquireMap();
+
+		try {
+			int[] stack = new int[16];
+
+			for(int n = 0; n < touchedCount; ++n) {
+				int start = touched[n];
+
+				if(parents[start] != start || scheme(start) < 0 || states.contains(list.node(start))) continue;
+
+				// stack of pairs (root, next arg)
+				int sp = 0;
+
+				stack[sp++] = start;
+				stack[sp++] = 0;
+				states.put(list.node(start), Boolean.TRUE);
+
+				while(sp > 0) {
+					int root = stack[sp - 2];
+					int k = stack[sp - 1];
+
+					// terms that are in no equation are their own scheme.
+					Term s = scheme(root) >= 0 ? list.node(scheme(root)) : null;
+
+					if(s == null || k == s.arity()) {
+						states.put(list.node(root), Boolean.FALSE);
+						sp -= 2;
+						continue;
+					}
+
+					stack[sp - 1] = k + 1;
+
+					// args have smaller indices than s.
+					int next = find(s.arg(k).index);
+
+					Object state = states.get(list.node(next));
+
+					if(state == Boolean.TRUE) return false;
+
+					if(state == null) {
+						states.put(list.node(next), Boolean.TRUE);
+
+						if(sp + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+
+						stack[sp++] = next;
+						stack[sp++] = 0;
+					}
+				}
+			}
+
+			return true;
+		} finally {
+			list.releaseMap(states);
+		}
+	}
+
+	/**
+	 * Applies the most general unifier to t. The result is inserted into the list of this unifier.
+	 * @param t a term of the list of this unifier.
+	 * @return the instance of t.
+	 * @throws IllegalStateException if the equations are not solved or have no solution.
+	 */
+	public Term apply(Term t) {
+		check(t);
+
+		if(failed || !checked || pending > 0) throw new IllegalStateException("equations are not solved");
+
+		int limit = parents.length;
+
+		// instances of the classes, addressed by their roots.
+		TermList.IndexMap instances = list.acquireMap();
+
+		// instances of terms that are not part of any class.
+		TermList.IndexMap cache = list.acquireMap();
+
+		try {
+			ArrayList<Term> stack = new ArrayList<>();
+			ArrayList<Term> args = new ArrayList<>();
+
+			stack.add(t);
+
+			while(!stack.isEmpty()) {
+				Term u = stack.get(stack.size() - 1);
+
+				if(cache.contains(u)) {
+					stack.remove(stack.size() - 1);
+					continue;
+				}
+
+				// the representing term of u
+				Term v = u;
+
+				int root = -1;
+
+				if(u.index < limit) {
+					root = find(u.index);
+
+					if(instances.contains(list.node(root))) {
+						cache.put(u, instances.get(list.node(root)));
+						stack.remove(stack.size() - 1);
+						continue;
+					}
+
+					int scheme = scheme(root);
+
+					// unbound variables are represented by the root.
+					v = list.node(scheme >= 0 ? scheme : root);
+				}
+
+				boolean ready = true;
+
+				for(int k = v.arity() - 1; k >= 0; --k) {
+					if(!cache.contains(v.arg(k))) {
+						stack.add(v.arg(k));
+						ready = false;
+					}
+				}
+
+				if(!ready) continue;
+
+				stack.remove(stack.size() - 1);
+
+				args.clear();
+
+				for(int k = 0; k < v.arity(); ++k) {
+					args.add((Term) cache.get(v.arg(k)));
+				}
+
+				Term instance = v.arity() == 0 ? v
+						: v instanceof Lambda ? ((Lambda) v).copyInserted(list, args.get(0))
+						: v.copy(list, args);
+
+				if(root >= 0) instances.put(list.node(root), instance);
+
+				cache.put(u, instance);
+			}
+
+			return (Term) cache.get(t);
+		} finally {
+			list.releaseMap(cache);
+			list.releaseMap(instances);
+		}
+	}
+
+	/**
+	 * Removes all equations and bindings. Only the touched indices are reset.
+	 */
+	public void clear() {
+		for(int n = 0; n < touchedCount; ++n) {
+			int i = touched[n];
+
+			parents[i] = i;
+			ranks[i] = 0;
+			schemes[i] = -2;
+		}
+
+		touchedCount = 0;
+
+		pending = 0;
+		failed = false;
+		checked = true;
+	}
+}
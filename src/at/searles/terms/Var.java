@@ -6,11 +6,18 @@ import java.util.List;
 public class Var extends Term {
 
 	public static Term create(TermList list, String id) {
-		return list.findOrAppend(new Var(id), null);
+		Var v = (Var) list.findOrAppend(new Var(id));
+
+		if(v.slot == -1) v.slot = list.nextVarSlot();
+
+		return v;
 	}
 
 	String id;
 
+	// number of this variable in its list, used in Substitution.
+	int slot = -1;
+
 	public Var(String id) {
 		this.id = id;
 	}
@@ -22,13 +29,13 @@ public class Var extends Term {
 	}
 
 	@Override
-	protected boolean auxMatch(Term that) {
-		// non-linearity is checked via link which is implemented in match-method in Term.
-		return true;
+	protected int hash() {
+		return id.hashCode();
 	}
 
 	@Override
-	protected boolean auxUnify(Term that) {
+	protected boolean auxMatch(Term that) {
+		// non-linearity is checked via link which is implemented in match-method in Term.
 		return true;
 	}
 
@@ -0,0 +1,149 @@
+package at.searles.terms.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the lines of a UTF-8 file through a memory-mapped window that slides over the file.
+ * Only the current line is decoded into a String, hence the heap usage does not depend on the
+ * size of the file. Lines that are empty or only contain whitespace are skipped.
+ */
+public class MappedLineReader implements Iterator<String>, Closeable {
+
+	public static final int DEFAULT_WINDOW = 64 << 20;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+
+	// position in the file of the next line
+	private long position = 0;
+
+	private byte[] bytes = new byte[256];
+
+	private String next = null;
+	private int lineNumber = 0;
+	private int nextLineNumber = 0;
+
+	public MappedLineReader(Path path) throws IOException {
+		this(path, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param path
+	 * @param windowSize size of the mapped region. It is grown if a line does not fit into it.
+	 * @throws IOException
+	 */
+	public MappedLineReader(Path path, int windowSize) throws IOException {
+		if(windowSize <= 0) throw new IllegalArgumentException("window size must be positive");
+
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @return the number of the line that was last returned by next, starting with 1.
+	 */
+	public int lineNumber() {
+		return lineNumber;
+	}
+
+	private void map(long start, long length) {
+		try {
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, fileSize - start));
+			windowStart = start;
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads the line starting at position.
+	 * @return the line or null if the end of the file is reached.
+	 */
+	private String readLine() {
+		if(position >= fileSize) return null;
+
+		long length = windowSize;
+
+		while(true) {
+			if(window == null || position < windowStart || position >= windowStart + window.limit()) {
+				map(position, length);
+			}
+
+			int offset = (int) (position - windowStart);
+			int end = offset;
+
+			while(end < window.limit() && window.get(end) != '\n') {
+				end++;
+			}
+
+			if(end == window.limit() && windowStart + end < fileSize) {
+				// the line continues after the window. Map again starting at the line,
+				// and if it still does not fit, with a larger window.
+				if(offset == 0) length *= 2;
+
+				map(position, length);
+				continue;
+			}
+
+			int count = end - offset;
+
+			if(count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(count, bytes.length * 2));
+
+			window.position(offset);
+			window.get(bytes, 0, count);
+
+			// skip the line break
+			position = windowStart + end + 1;
+			nextLineNumber++;
+
+			// \r\n
+			if(count > 0 && bytes[count - 1] == '\r') count--;
+
+			return new String(bytes, 0, count, StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while(next == null) {
+			String line = readLine();
+
+			if(line == null) return false;
+
+			if(!line.trim().isEmpty()) next = line;
+		}
+
+		return true;
+	}
+
+	@Override
+	public String next() {
+		if(!hasNext()) throw new NoSuchElementException();
+
+		String line = next;
+		next = null;
+		lineNumber = nextLineNumber;
+
+		return line;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,107 @@
+package at.searles.terms.io;
+
+import at.searles.parsing.parser.Parser;
+import at.searles.parsing.regex.Lexer;
+import at.searles.terms.Term;
+import at.searles.terms.TermList;
+import at.searles.terms.TermParserBuilder;
+import at.searles.terms.rules.CTRS;
+import at.searles.terms.rules.ConditionalRule;
+import at.searles.terms.rules.RewriteRule;
+import at.searles.terms.rules.TRS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Loads rules and terms from files line by line using a MappedLineReader. Each line is parsed on its own
+ * and passed on before the next line is read, so the text of the file is never on the heap as a whole.
+ * A line of a rule file contains one or more rules, a line of a term file contains exactly one term.
+ * Terms are inserted into a hash-consed list, hence its size only grows with the shared DAG of all terms.
+ */
+public class StreamingLoader {
+
+	private final Function<String, Boolean> isVar;
+	private final int windowSize;
+
+	public StreamingLoader(Function<String, Boolean> isVar) {
+		this(isVar, MappedLineReader.DEFAULT_WINDOW);
+	}
+
+	public StreamingLoader(Function<String, Boolean> isVar, int windowSize) {
+		this.isVar = isVar;
+		this.windowSize = windowSize;
+	}
+
+	private static IllegalArgumentException error(Path path, MappedLineReader reader, String line) {
+		return new IllegalArgumentException(path + ":" + reader.lineNumber() + ": cannot parse '" + line + "'");
+	}
+
+	private <T> void read(Path path, Parser<T> parser, Consumer<T> sink) throws IOException {
+		try(MappedLineReader reader = new MappedLineReader(path, windowSize)) {
+			while(reader.hasNext()) {
+				String line = reader.next();
+
+				T t = parser.parse(line);
+
+				if(t == null) throw error(path, reader, line);
+
+				sink.accept(t);
+			}
+		}
+	}
+
+	/**
+	 * Like read, but each line contains a non-empty list of values.
+	 */
+	private <T> void readAll(Path path, Parser<List<T>> parser, Consumer<T> sink) throws IOException {
+		try(MappedLineReader reader = new MappedLineReader(path, windowSize)) {
+			while(reader.hasNext()) {
+				String line = reader.next();
+
+				List<T> ts = parser.parse(line);
+
+				if(ts == null || ts.isEmpty()) throw error(path, reader, line);
+
+				ts.forEach(sink);
+			}
+		}
+	}
+
+	/**
+	 * Parses each line as a term and inserts it into list.
+	 * @param builder the builder of the term parser, eg TermParserBuilder.FO_BUILDER
+	 * @param sink receives the terms in the order of the file.
+	 */
+	public void readTerms(Path path, TermParserBuilder builder, TermList list, Consumer<Term> sink) throws IOException {
+		read(path, builder.parser(list, isVar), sink);
+	}
+
+	/**
+	 * Parses the rules of a file. Each rule has its own termlist.
+	 * @param sink receives the rules in the order of the file.
+	 */
+	public void readRules(Path path, Consumer<RewriteRule> sink) throws IOException {
+		readAll(path, new RewriteRule.RuleParser(new Lexer(), isVar).rep(true).map(rules -> rules.asList()), sink);
+	}
+
+	public void readConditionalRules(Path path, Consumer<ConditionalRule> sink) throws IOException {
+		readAll(path, new ConditionalRule.RuleParser(new Lexer(), isVar).rep(true).map(rules -> rules.asList()), sink);
+	}
+
+	public TRS loadTRS(Path path) throws IOException {
+		List<RewriteRule> rules = new ArrayList<>();
+		readRules(path, rules::add);
+		return new TRS(rules);
+	}
+
+	public CTRS loadCTRS(Path path) throws IOException {
+		List<ConditionalRule> rules = new ArrayList<>();
+		readConditionalRules(path, rules::add);
+		return new CTRS(rules);
+	}
+}
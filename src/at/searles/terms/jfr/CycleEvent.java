@@ -0,0 +1,21 @@
+package at.searles.terms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("at.searles.terms.Cycle")
+@Label("Rewrite Cycle")
+@Description("A rule led to a cycle and was skipped")
+@Category({"Term Rewriting"})
+class CycleEvent extends jdk.jfr.Event {
+	@Label("System")
+	String system;
+
+	@Label("Rule")
+	int rule;
+
+	@Label("Root Symbol")
+	String rootSymbol;
+}
@@ -0,0 +1,127 @@
+package at.searles.terms.jfr;
+
+import at.searles.terms.CycleException;
+import at.searles.terms.Fun;
+import at.searles.terms.RewriteListener;
+import at.searles.terms.Term;
+import at.searles.terms.TermFn;
+
+import java.util.ArrayDeque;
+
+/**
+ * RewriteListener that emits Java Flight Recorder events, so that rewriting can be correlated
+ * with GC and allocation in JMC. The events are in the category "Term Rewriting":
+ *
+ * at.searles.terms.RewriteStep for each applied rule with rule, root symbol and duration,
+ * at.searles.terms.Cycle for each CycleException that was caught,
+ * at.searles.terms.ListGrowth every checkpointInterval steps of a thread and at the end of each normalization,
+ * at.searles.terms.Normalize as span around each call of Term.normalize (by default only if it takes at least 10 ms).
+ *
+ * Events that are disabled in the recording cost little more than a check. Attach with
+ * trs.setListener(new JfrRewriteListener()).
+ */
+public class JfrRewriteListener implements RewriteListener {
+
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+	private static class State {
+		final ArrayDeque<NormalizeEvent> spans = new ArrayDeque<>();
+		final ArrayDeque<Integer> startSizes = new ArrayDeque<>();
+		int steps = 0;
+	}
+
+	private final int checkpointInterval;
+
+	private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+	public JfrRewriteListener() {
+		this(DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * @param checkpointInterval number of steps of a thread between two ListGrowth events.
+	 */
+	public JfrRewriteListener(int checkpointInterval) {
+		if(checkpointInterval <= 0) throw new IllegalArgumentException("checkpointInterval must be positive");
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	static String rootSymbol(Term t) {
+		return t instanceof Fun ? ((Fun) t).symbol().toString() : t.getClass().getSimpleName();
+	}
+
+	@Override
+	public void ruleTried(TermFn fn, int rule, Term t, boolean fired, long nanos) {
+		if(!fired) return;
+
+		RewriteStepEvent step = new RewriteStepEvent();
+
+		if(step.isEnabled()) {
+			step.system = fn.getClass().getSimpleName();
+			step.rule = rule;
+			step.rootSymbol = rootSymbol(t);
+			step.nanos = nanos;
+			step.commit();
+		}
+
+		State s = state.get();
+
+		if(++s.steps % checkpointInterval == 0) {
+			int start = s.startSizes.isEmpty() ? t.parent.size() : s.startSizes.peek();
+			checkpoint(t.parent.size(), start);
+		}
+	}
+
+	@Override
+	public void cycleCaught(TermFn fn, int rule, Term t, CycleException e) {
+		CycleEvent cycle = new CycleEvent();
+
+		if(cycle.isEnabled()) {
+			cycle.system = fn.getClass().getSimpleName();
+			cycle.rule = rule;
+			cycle.rootSymbol = rootSymbol(t);
+			cycle.commit();
+		}
+	}
+
+	@Override
+	public void normalizeStarted(TermFn fn, Term t) {
+		State s = state.get();
+
+		NormalizeEvent span = new NormalizeEvent();
+		span.begin();
+
+		s.spans.push(span);
+		s.startSizes.push(t.parent.size());
+	}
+
+	@Override
+	public void normalized(TermFn fn, Term t, Term nf, long nanos, int listGrowth) {
+		State s = state.get();
+
+		NormalizeEvent span = s.spans.pop();
+		int start = s.startSizes.pop();
+
+		span.end();
+
+		if(span.shouldCommit()) {
+			span.system = fn.getClass().getSimpleName();
+			span.rootSymbol = rootSymbol(t);
+			span.growth = listGrowth;
+			span.failed = nf == null;
+			span.commit();
+		}
+
+		checkpoint(start + listGrowth, start);
+	}
+
+	private static void checkpoint(int size, int start) {
+		ListGrowthEvent growth = new ListGrowthEvent();
+
+		if(growth.isEnabled()) {
+			growth.size = size;
+			growth.growth = size - start;
+			growth.commit();
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package at.searles.terms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("at.searles.terms.ListGrowth")
+@Label("Termlist Growth")
+@Description("Size of a termlist during normalization")
+@Category({"Term Rewriting"})
+@StackTrace(false)
+class ListGrowthEvent extends jdk.jfr.Event {
+	@Label("List Size")
+	int size;
+
+	@Label("Growth")
+	@Description("Terms added since the start of the normalization")
+	int growth;
+}
@@ -0,0 +1,27 @@
+package at.searles.terms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("at.searles.terms.Normalize")
+@Label("Normalize")
+@Description("A call of Term.normalize")
+@Category({"Term Rewriting"})
+@Threshold("10 ms")
+class NormalizeEvent extends jdk.jfr.Event {
+	@Label("System")
+	String system;
+
+	@Label("Root Symbol")
+	String rootSymbol;
+
+	@Label("Growth")
+	@Description("Terms added to the termlist")
+	int growth;
+
+	@Label("Failed")
+	boolean failed;
+}
@@ -0,0 +1,28 @@
+package at.searles.terms.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("at.searles.terms.RewriteStep")
+@Label("Rewrite Step")
+@Description("A rule was applied at the root of a term")
+@Category({"Term Rewriting"})
+@StackTrace(false)
+class RewriteStepEvent extends jdk.jfr.Event {
+	@Label("System")
+	String system;
+
+	@Label("Rule")
+	int rule;
+
+	@Label("Root Symbol")
+	String rootSymbol;
+
+	@Label("Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long nanos;
+}
@@ -1,140 +1,139 @@
 package at.searles.terms.rules;
 
-public class Arithmetics {
-
-	/*static final List<Rule> rules =
-			Arrays.asList(FnRule.fromString("add(x, y)", (FnRule.Fn) (map, target) -> {
-						Object x = map.get("x"); Object y = map.get("y");
-						if (x instanceof Integer && y instanceof Integer) {
-							return TermNode.append(target, new Const<>((Integer) x + (Integer) y));
-						} else {
-							return null;
-						}
-					}), FnRule.fromString("sub(x, y)", (FnRule.Fn) (map, target) -> {
-						Object x = map.get("x"); Object y = map.get("y");
-						if (x instanceof Integer && y instanceof Integer) {
-							return TermNode.append(target, new Const<>((Integer) x - (Integer) y));
-						} else {
-							return null;
-						}
-					}), FnRule.fromString("mul(x, y)", (FnRule.Fn) (map, target) -> {
-						Object x = map.get("x"); Object y = map.get("y");
-						if (x instanceof Integer && y instanceof Integer) {
-							return TermNode.append(target, new Const<>((Integer) x * (Integer) y));
-						} else {
-							return null;
-						}
-					}), FnRule.fromString("div(x, y)", (FnRule.Fn) (map, target) -> {
-						Object x = map.get("x"); Object y = map.get("y");
-						if (x instanceof Integer && y instanceof Integer) {
-							return TermNode.append(target, new Const<>((Integer) x / (Integer) y));
-						} else {
-							return null;
-						}
-					}), FnRule.fromString("neg(x)", (FnRule.Fn) (map, target) -> {
-						Object x = map.get("x");
-						if (x instanceof Integer) {
-							return TermNode.append(target, new Const<>(-(Integer) x));
-						} else {
-							return null;
-						}
-					}),
-
-					// further number simplifications:
-					// numbers must be propagated to top and front.
-					// mul(x, y) -> mul(y, x) if y is at.searles.terms.Const and x is not.
-					// mul(x, mul(y, z)) -> mul(mul(x, y), z) if y is at.searles.terms.Const
-					RewriteRule.fromString("add(x, y) -> add(y, x)").membership(
-							sigma -> sigma.get("y") instanceof Const && !(sigma.get("x") instanceof Const)
-					),
-					RewriteRule.fromString("sub(x, y) -> add(neg(y), x)").membership(
-							sigma -> sigma.get("y") instanceof Const && !(sigma.get("x") instanceof Const)
-					),
-
-					RewriteRule.fromString("add(x, add(y, z)) -> add(add(y, x), z)").membership(
-							sigma -> sigma.get("y") instanceof Const
-					),
-
-					RewriteRule.fromString("sub(x, add(y, z)) -> sub(add(y, x), z)").membership(
-							sigma -> sigma.get("y") instanceof Const // fixme is that right???
-					),
-
-					RewriteRule.fromString("add(add(x, y), z) -> add(x, add(y, z))").membership(
-							sigma -> !(sigma.get("y") instanceof Const)
-					),
-
-					RewriteRule.fromString("mul(x, y) -> mul(y, x)").membership(
-							sigma -> sigma.get("y") instanceof Const && !(sigma.get("x") instanceof Const)
-					),
-					RewriteRule.fromString("div(x, y) -> mul(rec(y), x)").membership(
-							sigma -> sigma.get("y") instanceof Const && !(sigma.get("x") instanceof Const)
-					),
-					RewriteRule.fromString("mul(x, mul(y, z)) -> mul(mul(x, y), z)").membership(
-							sigma -> sigma.get("y") instanceof Const
-					),
-					RewriteRule.fromString("mul(mul(x, y), z) -> mul(x, mul(y, z))").membership(
-							sigma -> !(sigma.get("y") instanceof Const)
-					),
-
-					RewriteRule.fromString("add(x, 0) -> x"),
-					RewriteRule.fromString("add(0, y) -> y"),
-					RewriteRule.fromString("sub(x, 0) -> x"),
-					RewriteRule.fromString("sub(0, y) -> neg(y)"),
-
-					RewriteRule.fromString("add(x, neg(y)) -> sub(x, y)"), // convert negs to subs
-					RewriteRule.fromString("add(neg(x), y) -> sub(y, x)"),
-					RewriteRule.fromString("sub(x, neg(y)) -> add(x, y)"),
-					RewriteRule.fromString("neg(sub(x, y)) -> sub(y, x)"),
-
-					RewriteRule.fromString("sub(neg(x), y) -> neg(add(x, y))"), // propagate negs outside
-					RewriteRule.fromString("neg(neg(x)) -> x"), // remove double negs
-
-					RewriteRule.fromString("add(sub(x, y), z) -> sub(add(x, z), y)"), // propagate sub outside
-					RewriteRule.fromString("add(x, sub(y, z)) -> sub(add(x, y), z)"),
-
-					RewriteRule.fromString("sub(sub(x, y), z) -> sub(x, add(y, z))"),
-					RewriteRule.fromString("sub(x, sub(y, z)) -> sub(add(x, z), y)"),
-
-
-					// multiplication rules
-					RewriteRule.fromString("mul(x, 0) -> 0"),
-					RewriteRule.fromString("mul(0, y) -> 0"),
-					RewriteRule.fromString("div(0, y) -> 0"), // div(x, 0) is kept because it is an error
-
-					RewriteRule.fromString("mul(x, 1) -> x"),
-					RewriteRule.fromString("mul(1, y) -> y"),
-					RewriteRule.fromString("div(x, 1) -> x"),
-					RewriteRule.fromString("div(1, y) -> rec(y)"),
-
-					// since neg is propagated to outside, numbers must be put on top.
-
-					// propagate neg to outside
-					RewriteRule.fromString("mul(neg(x), y) -> neg(mul(x, y))"),
-					RewriteRule.fromString("mul(x, neg(y)) -> neg(mul(x, y))"),
-					RewriteRule.fromString("div(neg(x), y) -> neg(div(x, y))"),
-					RewriteRule.fromString("div(x, neg(y)) -> neg(div(x, y))"),
-					RewriteRule.fromString("rec(neg(x)) -> neg(rec(x))"),
-
-					RewriteRule.fromString("mul(x, rec(y)) -> div(x, y)"), // convert recs to divs
-					RewriteRule.fromString("mul(rec(x), y) -> div(y, x)"),
-					RewriteRule.fromString("div(x, rec(y)) -> mul(x, y)"),
-					RewriteRule.fromString("rec(div(x, y)) -> div(y, x)"),
-
-					RewriteRule.fromString("div(rec(x), y) -> rec(mul(x, y))"), // propagate recs outside
-					RewriteRule.fromString("rec(rec(x)) -> x"), // remove double recs
-
-					RewriteRule.fromString("mul(div(x, y), z) -> div(mul(x, z), y)"), // propagate div outside
-					RewriteRule.fromString("mul(x, div(y, z)) -> div(mul(x, y), z)"),
-
-					RewriteRule.fromString("div(div(x, y), z) -> div(x, mul(y, z))"),
-					RewriteRule.fromString("div(x, div(y, z)) -> div(mul(x, z), y)")
-			);
-
-	// (x * 2) * (4 * y) -->
-
-	static final TRS sys = new TRS(rules);
-
-	public static TermNode solve(TermNode t) {
-		return sys.apply(t, new TreeMap<>());
-	}*/
+import at.searles.terms.BigConst;
+import at.searles.terms.Fun;
+import at.searles.terms.LongConst;
+import at.searles.terms.RewriteListener;
+import at.searles.terms.Signature;
+import at.searles.terms.Symbol;
+import at.searles.terms.Term;
+import at.searles.terms.TermFn;
+import at.searles.terms.TermList;
+
+import java.math.BigInteger;
+
+/**
+ * Integer arithmetic on LongConst and BigConst. add, sub, mul, div and neg are evaluated
+ * if all arguments are integer constants, without matching any rules. Long arithmetic is
+ * used as long as there is no overflow, otherwise BigInteger. div rounds towards 0 like
+ * in Java. div(x, 0) is not evaluated.
+ *
+ * Other terms are passed to an optional TermFn, eg a TRS, so that
+ * new Arithmetics(trs) rewrites with trs and evaluates arithmetic on the fly.
+ */
+public class Arithmetics implements TermFn {
+
+	public static final Symbol ADD = Signature.DEFAULT.symbol("add", 2);
+	public static final Symbol SUB = Signature.DEFAULT.symbol("sub", 2);
+	public static final Symbol MUL = Signature.DEFAULT.symbol("mul", 2);
+	public static final Symbol DIV = Signature.DEFAULT.symbol("div", 2);
+	public static final Symbol NEG = Signature.DEFAULT.symbol("neg", 1);
+
+	private final TermFn rules;
+
+	public Arithmetics() {
+		this(null);
+	}
+
+	/**
+	 * @param rules applied to all terms that are not evaluated, may be null.
+	 */
+	public Arithmetics(TermFn rules) {
+		this.rules = rules;
+	}
+
+	@Override
+	public Term apply(Term t, TermList target) {
+		Term u = eval(t, target);
+
+		if(u != null || rules == null) return u;
+
+		return rules.apply(t, target);
+	}
+
+	@Override
+	public long version() {
+		return rules != null ? rules.version() : 0;
+	}
+
+	@Override
+	public void rebuilt(Term from, Term to) {
+		if(rules != null) rules.rebuilt(from, to);
+	}
+
+	@Override
+	public RewriteListener listener() {
+		return rules != null ? rules.listener() : null;
+	}
+
+	/**
+	 * Evaluates t if it is one of the arithmetic functions applied to integer constants.
+	 * @return the result in target or null if t cannot be evaluated.
+	 */
+	public static Term eval(Term t, TermList target) {
+		if(!(t instanceof Fun)) return null;
+
+		Symbol f = ((Fun) t).symbol();
+
+		if(f == NEG) {
+			Term x = t.arg(0);
+
+			if(x instanceof LongConst) {
+				long a = ((LongConst) x).longValue();
+
+				if(a != Long.MIN_VALUE) return LongConst.create(target, -a);
+			} else if(!(x instanceof BigConst)) {
+				return null;
+			}
+
+			return BigConst.create(target, big(x).negate());
+		}
+
+		if(f != ADD && f != SUB && f != MUL && f != DIV) return null;
+
+		Term x = t.arg(0);
+		Term y = t.arg(1);
+
+		if(x instanceof LongConst && y instanceof LongConst) {
+			long a = ((LongConst) x).longValue();
+			long b = ((LongConst) y).longValue();
+
+			try {
+				if(f == ADD) {
+					return LongConst.create(target, Math.addExact(a, b));
+				} else if(f == SUB) {
+					return LongConst.create(target, Math.subtractExact(a, b));
+				} else if(f == MUL) {
+					return LongConst.create(target, Math.multiplyExact(a, b));
+				} else if(b == 0) {
+					return null;
+				} else if(a != Long.MIN_VALUE || b != -1) {
+					return LongConst.create(target, a / b);
+				}
+			} catch(ArithmeticException e) {
+				// overflow, use BigInteger.
+			}
+		} else if(!(x instanceof LongConst || x instanceof BigConst) || !(y instanceof LongConst || y instanceof BigConst)) {
+			return null;
+		}
+
+		BigInteger a = big(x);
+		BigInteger b = big(y);
+
+		if(f == ADD) {
+			return BigConst.create(target, a.add(b));
+		} else if(f == SUB) {
+			return BigConst.create(target, a.subtract(b));
+		} else if(f == MUL) {
+			return BigConst.create(target, a.multiply(b));
+		} else if(b.signum() == 0) {
+			return null;
+		} else {
+			return BigConst.create(target, a.divide(b));
+		}
+	}
+
+	private static BigInteger big(Term t) {
+		return t instanceof LongConst ? BigInteger.valueOf(((LongConst) t).longValue()) : ((BigConst) t).value();
+	}
 }
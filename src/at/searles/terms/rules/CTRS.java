@@ -4,11 +4,13 @@ import at.searles.parsing.parser.Buffer;
 import at.searles.parsing.parser.Parser;
 import at.searles.parsing.regex.Lexer;
 import at.searles.terms.CycleException;
+import at.searles.terms.RewriteListener;
 import at.searles.terms.Term;
 import at.searles.terms.TermFn;
 import at.searles.terms.TermList;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.function.Function;
 
@@ -35,10 +37,46 @@ public class CTRS implements TermFn {
     }
 
     private final List<ConditionalRule> rules;
+    private final DiscriminationTree index;
+    private final RootFailures failures;
+
+    private RewriteListener listener = null;
 
     public CTRS(List<ConditionalRule> rules) {
-        this.rules = new LinkedList<>();
-        this.rules.addAll(rules);
+        this.rules = new ArrayList<>(rules);
+
+        List<Term> lhss = new ArrayList<>(rules.size());
+        List<List<Term>> conditions = new ArrayList<>(rules.size());
+
+        for(ConditionalRule r : rules) {
+            lhss.add(r.lhs);
+
+            List<Term> cs = new ArrayList<>();
+
+            for(ConditionalRule.Condition c : r.conditions) {
+                cs.add(c.s);
+                cs.add(c.t);
+            }
+
+            conditions.add(cs);
+        }
+
+        this.index = new DiscriminationTree(lhss);
+        this.failures = new RootFailures(lhss, conditions);
+    }
+
+    /**
+     * Sets the listener that receives the events of this CTRS, of the evaluation of conditions
+     * and of normalizations with it. It must be set before the CTRS is used.
+     * @param listener null to disable events.
+     */
+    public void setListener(RewriteListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public RewriteListener listener() {
+        return listener;
     }
 
     /**
@@ -52,18 +90,37 @@ public class CTRS implements TermFn {
         // If t cannot be reduced
         CycleException ex = null;
 
-        for(ConditionalRule r : rules) {
+        // rules that are known to fail at t (eg because of their conditions), and the ones that failed now.
+        BitSet known = t.failures(this);
+        BitSet failed = null;
+
+        // only try rules whose lhs might match t. They are in order of declaration.
+        for(int i : index.candidates(t)) {
+            if(known != null && known.get(i)) continue;
+
+            long start = listener != null ? System.nanoTime() : 0;
+
             try {
-                Term u = r.apply(t, target, this);
+                Term u = listener == null ? rules.get(i).apply(t, target, this)
+                        : rules.get(i).apply(t, target, this, listener, i);
+
+                if(listener != null) listener.ruleTried(this, i, t, u != null, System.nanoTime() - start);
+
                 if (u != null) {
                     return u;
                 }
+
+                if(failed == null) failed = known != null ? (BitSet) known.clone() : new BitSet();
+                failed.set(i);
             } catch(CycleException c) {
                 // If a rule leads to a cycle, try another rule. Maybe we will find a normalform.
+                if(listener != null) listener.cycleCaught(this, i, t, c);
                 ex = c;
             }
         }
 
+        if(failed != null) t.setFailures(this, failed);
+
         // there were only cycles?
         if(ex != null) throw ex;
 
@@ -71,6 +128,11 @@ public class CTRS implements TermFn {
         return null;
     }
 
+    @Override
+    public void rebuilt(Term from, Term to) {
+        failures.transfer(this, from, to);
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
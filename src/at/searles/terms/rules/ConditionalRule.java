@@ -40,39 +40,43 @@ public class ConditionalRule {
     }
 
     public Term apply(Term t, TermList target, TermFn fn) {
-        if(lhs.match(t)) {
+        return apply(t, target, fn, null, -1);
+    }
+
+    /**
+     * Like apply(t, target, fn), but the evaluation of each condition is reported to listener.
+     * @param listener may be null.
+     * @param index the index of this rule in fn, passed on to listener.
+     */
+    Term apply(Term t, TermList target, TermFn fn, RewriteListener listener, int index) {
+        // the substitution is local, hence a recursive application of this rule
+        // while normalizing a condition does not interfere.
+        Substitution sigma = new Substitution(list);
+
+        if(lhs.match(t, sigma)) {
+            int i = 0;
+
             for (Condition c : conditions) {
-                Term ssigma = target.insert(c.s); // matched lhs of condition
+                long start = listener != null ? System.nanoTime() : 0;
 
-                // store matcher
-                Map<Var, Term> matcher = list.matcher();
-                list.clearMatcher();
+                Term ssigma = c.s.instantiate(sigma, target); // matched lhs of condition
 
                 Term u = ssigma.normalize(fn);
 
-                // restore matcher
-                for (Map.Entry<Var, Term> entry : matcher.entrySet()) {
-                    entry.getKey().link = entry.getValue();
-                }
+                // and compare normalform of ssigma with c.t. This might bind further variables.
+                boolean satisfied = c.t.match(u, sigma);
 
-                // and compare normalform of ssigma with c.t
-                if (!c.t.match(u)) {
-                    // matcher was unset already
-                    // but reset all variables
-                    for (Var v : matcher.keySet()) {
-                        v.link = null;
-                    }
+                if(listener != null) listener.conditionEvaluated(fn, index, i, satisfied, System.nanoTime() - start);
 
+                if (!satisfied) {
                     // condition is not satisfied.
                     return null;
                 }
-            }
 
-            Term reduct = target.insert(rhs);
-
-            list.clearMatcher();
+                i++;
+            }
 
-            return reduct;
+            return rhs.instantiate(sigma, target);
         } else {
             return null;
         }
@@ -0,0 +1,148 @@
+package at.searles.terms.rules;
+
+import at.searles.terms.*;
+
+import java.util.*;
+
+/**
+ * Perfect discrimination tree over the left hand sides of a list of rules. Each lhs is
+ * stored as its flattened preorder traversal in which variables are replaced by a wildcard.
+ * Retrieval returns the indices of all rules whose lhs might match a term. Non-linear variables
+ * are treated like distinct ones, hence candidates still must be matched. Lambdas and lambda variables
+ * in patterns can only match identical terms, which is why they are also treated as wildcards.
+ */
+public class DiscriminationTree {
+
+	private static class Node {
+		final HashMap<Symbol, Node> funs = new HashMap<>();
+		final HashMap<Object, Node> consts = new HashMap<>();
+		Node app = null;
+		Node star = null;
+
+		// indices of rules ending in this node
+		int[] rules = null;
+		int count = 0;
+
+		void add(int rule) {
+			if(rules == null) {
+				rules = new int[2];
+			} else if(count == rules.length) {
+				rules = Arrays.copyOf(rules, count * 2);
+			}
+
+			rules[count++] = rule;
+		}
+	}
+
+	/**
+	 * Pending subterms of the subject (in preorder).
+	 */
+	private static class Pending {
+		final Term t;
+		final Pending next;
+
+		Pending(Term t, Pending next) {
+			this.t = t;
+			this.next = next;
+		}
+	}
+
+	private final Node root = new Node();
+	private final int size;
+
+	/**
+	 * Builds the tree. The indices of rules are the indices in the list.
+	 * @param lhss left hand sides of rules.
+	 */
+	public DiscriminationTree(List<Term> lhss) {
+		this.size = lhss.size();
+
+		int ruleIndex = 0;
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+
+		for(Term lhs : lhss) {
+			Node node = root;
+
+			stack.push(lhs);
+
+			while(!stack.isEmpty()) {
+				Term p = stack.pop();
+
+				if(p instanceof Fun) {
+					node = node.funs.computeIfAbsent(((Fun) p).symbol(), k -> new Node());
+				} else if(p instanceof App) {
+					if(node.app == null) node.app = new Node();
+					node = node.app;
+				} else if(p instanceof Const) {
+					node = node.consts.computeIfAbsent(((Const<?>) p).value(), k -> new Node());
+				} else {
+					// Var, Lambda or LambdaVar
+					if(node.star == null) node.star = new Node();
+					node = node.star;
+					continue; // args are covered by the wildcard
+				}
+
+				// push args so that the first one is on top.
+				for(int i = p.arity() - 1; i >= 0; --i) {
+					stack.push(p.arg(i));
+				}
+			}
+
+			node.add(ruleIndex++);
+		}
+	}
+
+	/**
+	 * Returns the indices of all rules whose lhs might match t in ascending order, ie,
+	 * in the order in which the rules were declared.
+	 * @param t
+	 * @return
+	 */
+	public int[] candidates(Term t) {
+		BitSet result = new BitSet(size);
+		retrieve(root, new Pending(t, null), result);
+		return result.stream().toArray();
+	}
+
+	private void retrieve(Node node, Pending pending, BitSet result) {
+		if(pending == null) {
+			// all subterms were consumed, thus node is a leaf.
+			for(int i = 0; i < node.count; ++i) {
+				result.set(node.rules[i]);
+			}
+
+			return;
+		}
+
+		Term t = pending.t;
+
+		if(node.star != null) {
+			// skip t entirely
+			retrieve(node.star, pending.next, result);
+		}
+
+		Node child;
+
+		if(t instanceof Fun) {
+			child = node.funs.get(((Fun) t).symbol());
+		} else if(t instanceof App) {
+			child = node.app;
+		} else if(t instanceof Const) {
+			child = node.consts.get(((Const<?>) t).value());
+		} else {
+			// these ones can only be matched by wildcards.
+			child = null;
+		}
+
+		if(child != null) {
+			Pending next = pending.next;
+
+			for(int i = t.arity() - 1; i >= 0; --i) {
+				next = new Pending(t.arg(i), next);
+			}
+
+			retrieve(child, next, result);
+		}
+	}
+}
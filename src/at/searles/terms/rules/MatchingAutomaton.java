@@ -0,0 +1,493 @@
+package at.searles.terms.rules;
+
+import at.searles.terms.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Many-to-one matcher for the left hand sides of a rule set. The lhs are flattened into their
+ * preorder traversal and a deterministic automaton is built over all of them. The automaton reads
+ * the subject in preorder and visits each position at most once (positions below variables are skipped
+ * if no pattern is interested in them). States are sets of items (rule, position in flattened lhs,
+ * number of subject subterms still to be skipped) and they are created lazily
+ * because the set of reachable states depends on the subjects.
+ *
+ * Non-linear patterns are compiled like linear ones, equality of the bound subterms is checked when
+ * the bindings are extracted. Since terms are hash-consed, this is an identity check. Patterns
+ * containing lambdas or lambda variables are not compiled; they are always reported as
+ * candidates and must be matched using Term.match.
+ */
+public class MatchingAutomaton {
+
+	// Keys in flattened patterns.
+	private static final Object VAR = new Object();
+	private static final Object APP = new Object();
+
+	/**
+	 * Key for constants that occur in some pattern. Instances are unique per value.
+	 */
+	private static final class ConstKey {
+		final Object value;
+
+		ConstKey(Object value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Key for subject nodes that do not occur in any pattern. Only the arity is relevant.
+	 */
+	private static final class OtherKey {
+		final int arity;
+
+		OtherKey(int arity) {
+			this.arity = arity;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof OtherKey && ((OtherKey) o).arity == arity;
+		}
+
+		@Override
+		public int hashCode() {
+			return arity;
+		}
+	}
+
+	private static final OtherKey[] OTHERS = new OtherKey[8];
+
+	static {
+		for(int i = 0; i < OTHERS.length; ++i) OTHERS[i] = new OtherKey(i);
+	}
+
+	private static OtherKey other(int arity) {
+		return arity < OTHERS.length ? OTHERS[arity] : new OtherKey(arity);
+	}
+
+	/**
+	 * Wrapper so that sorted item arrays can be used as keys.
+	 */
+	private static final class ItemSet {
+		final int[] items;
+		final int hash;
+
+		ItemSet(int[] items) {
+			this.items = items;
+			this.hash = Arrays.hashCode(items);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof ItemSet && Arrays.equals(items, ((ItemSet) o).items);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private final class State {
+		// triples of rule, position, skip, sorted by rule (there is at most one item per rule).
+		final int[] items;
+
+		// true if no item needs to read further symbols, ie all remaining items match.
+		final boolean done;
+
+		// true if all items only skip subterms.
+		final boolean skipping;
+
+		// rules whose patterns were read completely.
+		final int[] matched;
+
+		final ConcurrentHashMap<Object, State> next = new ConcurrentHashMap<>();
+		volatile State skipped = null;
+
+		State(int[] items) {
+			this.items = items;
+
+			int count = 0;
+			boolean skipping = items.length > 0;
+
+			for(int i = 0; i < items.length; i += 3) {
+				if(items[i + 1] == keys[items[i]].length) count++;
+				if(items[i + 2] == 0) skipping = false;
+			}
+
+			this.done = count * 3 == items.length;
+			this.skipping = skipping;
+			this.matched = new int[count];
+
+			for(int i = 0, k = 0; i < items.length; i += 3) {
+				if(items[i + 1] == keys[items[i]].length) matched[k++] = items[i];
+			}
+		}
+
+		/**
+		 * Successor state if the next subject subterm is skipped entirely. Only valid if skipping is true.
+		 */
+		State skip() {
+			State s = skipped;
+
+			if(s == null) {
+				int[] nextItems = items.clone();
+
+				for(int i = 0; i < nextItems.length; i += 3) {
+					nextItems[i + 2]--;
+				}
+
+				skipped = s = state(nextItems);
+			}
+
+			return s;
+		}
+
+		/**
+		 * Successor state after reading a subject node with the given key and arity.
+		 */
+		State next(Object key, int arity) {
+			State s = next.get(key);
+
+			if(s == null) {
+				int[] nextItems = new int[items.length];
+				int len = 0;
+
+				for(int i = 0; i < items.length; i += 3) {
+					int rule = items[i];
+					int pos = items[i + 1];
+					int skip = items[i + 2];
+
+					if(skip > 0) {
+						// the node is inside a skipped subterm.
+						nextItems[len++] = rule;
+						nextItems[len++] = pos;
+						nextItems[len++] = skip - 1 + arity;
+					} else if(keys[rule][pos] == VAR) {
+						// skip all args of the node.
+						nextItems[len++] = rule;
+						nextItems[len++] = pos + 1;
+						nextItems[len++] = arity;
+					} else if(keys[rule][pos] == key) {
+						nextItems[len++] = rule;
+						nextItems[len++] = pos + 1;
+						nextItems[len++] = 0;
+					}
+				}
+
+				s = state(Arrays.copyOf(nextItems, len));
+				next.put(key, s);
+			}
+
+			return s;
+		}
+	}
+
+	// flattened patterns. null if the pattern is not compiled.
+	private final Object[][] keys;
+
+	// distinct variables of each pattern
+	private final Var[][] vars;
+
+	// paths to all variable occurrences of each pattern, and the index in vars.
+	private final int[][][] occurrences;
+	private final int[][] occurrenceVars;
+
+	// rules that are not compiled
+	private final int[] fallback;
+
+	// alphabet
+	private final HashSet<Symbol> symbols = new HashSet<>();
+	private final HashMap<Object, ConstKey> consts = new HashMap<>();
+	private boolean hasApp = false;
+
+	private final ConcurrentHashMap<ItemSet, State> states = new ConcurrentHashMap<>();
+	private final State initial;
+
+	/**
+	 * Builds the automaton. The indices of rules are the indices in the list.
+	 * @param lhss left hand sides of rules.
+	 */
+	public MatchingAutomaton(List<Term> lhss) {
+		int n = lhss.size();
+
+		this.keys = new Object[n][];
+		this.vars = new Var[n][];
+		this.occurrences = new int[n][][];
+		this.occurrenceVars = new int[n][];
+
+		int[] fallback = new int[n];
+		int fallbackCount = 0;
+
+		int[] initialItems = new int[3 * n];
+		int len = 0;
+
+		for(int rule = 0; rule < n; ++rule) {
+			if(compile(rule, lhss.get(rule))) {
+				initialItems[len++] = rule;
+				initialItems[len++] = 0;
+				initialItems[len++] = 0;
+			} else {
+				fallback[fallbackCount++] = rule;
+			}
+		}
+
+		this.fallback = Arrays.copyOf(fallback, fallbackCount);
+		this.initial = state(Arrays.copyOf(initialItems, len));
+	}
+
+	private boolean compile(int rule, Term lhs) {
+		ArrayList<Object> flat = new ArrayList<>();
+		ArrayList<Var> distinct = new ArrayList<>();
+		ArrayList<int[]> paths = new ArrayList<>();
+		ArrayList<Integer> pathVars = new ArrayList<>();
+
+		// preorder traversal. Paths are kept along with the terms.
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		ArrayDeque<int[]> pathStack = new ArrayDeque<>();
+
+		stack.push(lhs);
+		pathStack.push(new int[0]);
+
+		while(!stack.isEmpty()) {
+			Term p = stack.pop();
+			int[] path = pathStack.pop();
+
+			if(p instanceof Var) {
+				flat.add(VAR);
+
+				int index = distinct.indexOf(p);
+
+				if(index == -1) {
+					index = distinct.size();
+					distinct.add((Var) p);
+				}
+
+				paths.add(path);
+				pathVars.add(index);
+
+				continue;
+			} else if(p instanceof Fun) {
+				Symbol f = ((Fun) p).symbol();
+				symbols.add(f);
+				flat.add(f);
+			} else if(p instanceof App) {
+				hasApp = true;
+				flat.add(APP);
+			} else if(p instanceof Const) {
+				flat.add(consts.computeIfAbsent(((Const<?>) p).value(), ConstKey::new));
+			} else {
+				// lambdas only match identical terms
+				return false;
+			}
+
+			for(int i = p.arity() - 1; i >= 0; --i) {
+				int[] argPath = Arrays.copyOf(path, path.length + 1);
+				argPath[path.length] = i;
+
+				stack.push(p.arg(i));
+				pathStack.push(argPath);
+			}
+		}
+
+		keys[rule] = flat.toArray();
+		vars[rule] = distinct.toArray(new Var[distinct.size()]);
+		occurrences[rule] = paths.toArray(new int[paths.size()][]);
+		occurrenceVars[rule] = pathVars.stream().mapToInt(Integer::intValue).toArray();
+
+		return true;
+	}
+
+	private State state(int[] items) {
+		return states.computeIfAbsent(new ItemSet(items), key -> new State(key.items));
+	}
+
+	private Object key(Term t) {
+		if(t instanceof Fun) {
+			Symbol f = ((Fun) t).symbol();
+			return symbols.contains(f) ? f : other(f.arity);
+		} else if(t instanceof App) {
+			return hasApp ? APP : other(2);
+		} else if(t instanceof Const) {
+			ConstKey key = consts.get(((Const<?>) t).value());
+			return key != null ? key : other(0);
+		} else {
+			return other(t.arity());
+		}
+	}
+
+	private Object key(TermStore store, int h) {
+		switch(store.kind(h)) {
+			case TermStore.FUN: {
+				Symbol f = store.symbol(h);
+				return symbols.contains(f) ? f : other(f.arity);
+			}
+			case TermStore.APP:
+				return hasApp ? APP : other(2);
+			case TermStore.CONST: {
+				ConstKey key = consts.get(store.value(h));
+				return key != null ? key : other(0);
+			}
+			default:
+				return other(store.arity(h));
+		}
+	}
+
+	/**
+	 * Runs the automaton on t.
+	 * @param t the subject
+	 * @return the indices of all rules whose lhs matches t in ascending order. Rules that are not compiled
+	 * are always contained. For non-linear patterns bindings might still fail.
+	 */
+	public int[] match(Term t) {
+		State s = initial;
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(t);
+
+		while(!s.done && !stack.isEmpty()) {
+			Term u = stack.pop();
+
+			if(s.skipping) {
+				// nobody is interested in u or its subterms.
+				s = s.skip();
+			} else {
+				s = s.next(key(u), u.arity());
+
+				for(int i = u.arity() - 1; i >= 0; --i) {
+					stack.push(u.arg(i));
+				}
+			}
+		}
+
+		return result(s);
+	}
+
+	/**
+	 * Like match(Term) for the node h of a store. Links in the store are not followed.
+	 */
+	public int[] match(TermStore store, int h) {
+		State s = initial;
+
+		int[] stack = new int[16];
+		int top = 0;
+
+		stack[top++] = h;
+
+		while(!s.done && top > 0) {
+			int u = stack[--top];
+
+			if(s.skipping) {
+				s = s.skip();
+			} else {
+				int arity = store.arity(u);
+
+				s = s.next(key(store, u), arity);
+
+				if(top + arity > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + arity));
+
+				for(int i = arity - 1; i >= 0; --i) {
+					stack[top++] = store.arg(u, i);
+				}
+			}
+		}
+
+		return result(s);
+	}
+
+	private int[] result(State s) {
+		if(!s.done) return fallback; // no compiled pattern matched.
+
+		if(fallback.length == 0) return s.matched;
+
+		// merge both
+		int[] result = new int[s.matched.length + fallback.length];
+
+		for(int i = 0, j = 0, k = 0; k < result.length; ++k) {
+			result[k] = j == fallback.length || (i < s.matched.length && s.matched[i] < fallback[j])
+					? s.matched[i++] : fallback[j++];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns true if the rule was compiled, ie if bindings can be used.
+	 * @param rule
+	 * @return
+	 */
+	public boolean isCompiled(int rule) {
+		return keys[rule] != null;
+	}
+
+	/**
+	 * Returns the distinct variables of the lhs of a compiled rule.
+	 * @param rule
+	 * @return
+	 */
+	public Var[] variables(int rule) {
+		return vars[rule];
+	}
+
+	/**
+	 * Extracts the bindings of variables of a rule that was reported by match(t).
+	 * @param rule index of a compiled rule
+	 * @param t the subject that was passed to match
+	 * @return the bound subterms in the same order as variables(rule), or null if
+	 * occurrences of a non-linear variable are bound to different terms.
+	 */
+	public Term[] bindings(int rule, Term t) {
+		Term[] binding = new Term[vars[rule].length];
+
+		int[][] paths = occurrences[rule];
+
+		for(int k = 0; k < paths.length; ++k) {
+			Term u = t;
+
+			for(int p : paths[k]) {
+				u = u.arg(p);
+			}
+
+			int index = occurrenceVars[rule][k];
+
+			if(binding[index] == null) {
+				binding[index] = u;
+			} else if(binding[index] != u) {
+				// non-linear variable
+				return null;
+			}
+		}
+
+		return binding;
+	}
+
+	/**
+	 * Like bindings(int, Term) for the node h of a store.
+	 * @return handles of the bound subterms or null.
+	 */
+	public int[] bindings(int rule, TermStore store, int h) {
+		int[] binding = new int[vars[rule].length];
+		Arrays.fill(binding, -1);
+
+		int[][] paths = occurrences[rule];
+
+		for(int k = 0; k < paths.length; ++k) {
+			int u = h;
+
+			for(int p : paths[k]) {
+				u = store.arg(u, p);
+			}
+
+			int index = occurrenceVars[rule][k];
+
+			if(binding[index] == -1) {
+				binding[index] = u;
+			} else if(binding[index] != u) {
+				return null;
+			}
+		}
+
+		return binding;
+	}
+}
@@ -0,0 +1,476 @@
+package at.searles.terms.rules;
+
+import at.searles.terms.*;
+
+import java.util.*;
+
+/**
+ * Outermost-needed rewriting strategy for constructor systems. In contrast to Term.normalize, which
+ * is innermost, arguments are only reduced if a rule needs them, thus lazy programs like
+ * if-then-else or take on infinite lists terminate.
+ *
+ * For each defined symbol (a root symbol of a left hand side), a definitional tree is built from the rules.
+ * A branch node inspects one position of the term. The subterm at this position is first reduced to
+ * head normal form, ie until its root is a constructor (or no rule is applicable at its root),
+ * and then the branch for this constructor is followed. A leaf contains the rule that is applied.
+ * If there is no position that all remaining rules inspect (the rules are not inductively sequential
+ * there) or if a rule is not left-linear, the arguments are normalized strictly and the TRS
+ * is applied.
+ *
+ * The order of rules is respected, ie a rule is only applied if no earlier rule matches.
+ *
+ * Use normalize(Term) instead of Term.normalize, because the latter would normalize all arguments first.
+ *
+ * Rewrite steps can be observed or stopped by passing a TermFn that wraps the TRS, eg one that counts
+ * steps. It is then applied for every rewrite step instead of the rule of the leaf.
+ */
+public class OutermostNeeded implements TermFn {
+
+	private static abstract class Node {}
+
+	private static final class Branch extends Node {
+		final int[] path;
+		final HashMap<Symbol, Node> children = new HashMap<>();
+
+		Branch(int[] path) {
+			this.path = path;
+		}
+	}
+
+	private static final class Leaf extends Node {
+		final RewriteRule rule;
+
+		Leaf(RewriteRule rule) {
+			this.rule = rule;
+		}
+	}
+
+	private static final class Strict extends Node {}
+
+	private static final Node STRICT = new Strict();
+
+	private final TRS trs;
+	private final TermFn fn; // null if rules are applied directly.
+	private final HashMap<Symbol, Node> trees = new HashMap<>();
+
+	/**
+	 * @param trs a constructor system, ie the args of left hand sides must not contain defined symbols.
+	 * @throws IllegalArgumentException if trs is not a first order constructor system.
+	 */
+	public OutermostNeeded(TRS trs) {
+		this(trs, null);
+	}
+
+	/**
+	 * @param trs a constructor system, ie the args of left hand sides must not contain defined symbols.
+	 * @param fn applied for every rewrite step. It must behave like trs, ie apply the first matching
+	 *           rule of trs. Exceptions thrown by it are passed on, eg to stop the normalization.
+	 * @throws IllegalArgumentException if trs is not a first order constructor system.
+	 */
+	public OutermostNeeded(TRS trs, TermFn fn) {
+		this.trs = trs;
+		this.fn = fn;
+
+		LinkedHashMap<Symbol, List<RewriteRule>> defined = new LinkedHashMap<>();
+
+		for(RewriteRule rule : trs.rules()) {
+			if(!(rule.lhs instanceof Fun)) {
+				throw new IllegalArgumentException("not a constructor system, lhs must be a function: " + rule);
+			}
+
+			defined.computeIfAbsent(((Fun) rule.lhs).symbol(), k -> new ArrayList<>()).add(rule);
+		}
+
+		for(RewriteRule rule : trs.rules()) {
+			for(int i = 0; i < rule.lhs.arity(); ++i) {
+				checkConstructorTerm(rule.lhs.arg(i), defined.keySet(), rule);
+			}
+		}
+
+		for(Map.Entry<Symbol, List<RewriteRule>> entry : defined.entrySet()) {
+			List<RewriteRule> rules = entry.getValue();
+
+			boolean leftLinear = true;
+
+			for(RewriteRule rule : rules) {
+				if(!isLinear(rule.lhs)) leftLinear = false;
+			}
+
+			List<int[]> positions = new ArrayList<>();
+
+			for(int i = 0; i < entry.getKey().arity; ++i) {
+				positions.add(new int[]{i});
+			}
+
+			trees.put(entry.getKey(), leftLinear ? tree(rules, positions) : STRICT);
+		}
+	}
+
+	private static void checkConstructorTerm(Term t, Set<Symbol> defined, RewriteRule rule) {
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(t);
+
+		while(!stack.isEmpty()) {
+			Term u = stack.pop();
+
+			if(u instanceof Var) continue;
+
+			if(!(u instanceof Fun) || defined.contains(((Fun) u).symbol())) {
+				throw new IllegalArgumentException("not a constructor system: " + rule);
+			}
+
+			for(int i = 0; i < u.arity(); ++i) {
+				stack.push(u.arg(i));
+			}
+		}
+	}
+
+	private static boolean isLinear(Term lhs) {
+		Set<Term> vars = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(lhs);
+
+		while(!stack.isEmpty()) {
+			Term u = stack.pop();
+
+			// terms are hash-consed, thus a variable that occurs twice is the same object.
+			if(u instanceof Var && !vars.add(u)) return false;
+
+			for(int i = 0; i < u.arity(); ++i) {
+				stack.push(u.arg(i));
+			}
+		}
+
+		return true;
+	}
+
+	private static Term at(Term t, int[] path) {
+		for(int p : path) t = t.arg(p);
+		return t;
+	}
+
+	/**
+	 * Builds the definitional tree for rules whose left hand sides are all instances of
+	 * the same pattern. The variables of this pattern are at positions.
+	 */
+	private static Node tree(List<RewriteRule> rules, List<int[]> positions) {
+		// inductive position: all rules have a constructor there.
+		for(int k = 0; k < positions.size(); ++k) {
+			int[] path = positions.get(k);
+
+			boolean inductive = true;
+
+			for(RewriteRule rule : rules) {
+				if(at(rule.lhs, path) instanceof Var) {
+					inductive = false;
+					break;
+				}
+			}
+
+			if(!inductive) continue;
+
+			// group rules by constructor, keeping their order.
+			LinkedHashMap<Symbol, List<RewriteRule>> groups = new LinkedHashMap<>();
+
+			for(RewriteRule rule : rules) {
+				groups.computeIfAbsent(((Fun) at(rule.lhs, path)).symbol(), c -> new ArrayList<>()).add(rule);
+			}
+
+			Branch branch = new Branch(path);
+
+			for(Map.Entry<Symbol, List<RewriteRule>> group : groups.entrySet()) {
+				List<int[]> childPositions = new ArrayList<>(positions);
+				childPositions.remove(k);
+
+				for(int i = 0; i < group.getKey().arity; ++i) {
+					int[] childPath = Arrays.copyOf(path, path.length + 1);
+					childPath[path.length] = i;
+					childPositions.add(childPath);
+				}
+
+				branch.children.put(group.getKey(), tree(group.getValue(), childPositions));
+			}
+
+			return branch;
+		}
+
+		// no inductive position. If the first rule does not inspect any position, it matches.
+		for(int[] path : positions) {
+			if(!(at(rules.get(0).lhs, path) instanceof Var)) return STRICT;
+		}
+
+		return new Leaf(rules.get(0));
+	}
+
+	private Node tree(Term t) {
+		return t instanceof Fun ? trees.get(((Fun) t).symbol()) : null;
+	}
+
+	/**
+	 * Normalizes t using the outermost-needed strategy. Like in Term.normalize, t is linked to its normalform.
+	 * @param t
+	 * @return the normalform.
+	 */
+	public Term normalize(Term t) {
+		// if link is set, t was already normalized.
+		Term u = t;
+
+		while(u.link != null && u.link != u) u = u.link;
+
+		if(u.normalform) return u;
+
+		Term nf = normalform(u);
+
+		if(nf != u) u.link = nf;
+
+		return nf;
+	}
+
+	/**
+	 * Applies the strategy to t as TermFn.
+	 * @return the normalform of t or null if t is a normalform.
+	 */
+	@Override
+	public Term apply(Term t, TermList target) {
+		Term nf = normalform(t);
+
+		if(nf == t) return null;
+
+		return nf.parent == target ? nf : target.insert(nf);
+	}
+
+	private static final class NfFrame {
+		final Term origin;
+		final Term hnf;
+		final Term[] args;
+		int next = 0;
+
+		NfFrame(Term origin, Term hnf) {
+			this.origin = origin;
+			this.hnf = hnf;
+			this.args = new Term[hnf.arity()];
+		}
+	}
+
+	private Term normalform(Term t) {
+		IdentityHashMap<Term, Term> hnfs = new IdentityHashMap<>();
+		IdentityHashMap<Term, Term> nfs = new IdentityHashMap<>();
+
+		ArrayDeque<NfFrame> stack = new ArrayDeque<>();
+		stack.push(new NfFrame(t, hnf(t, hnfs)));
+
+		Term result = null;
+
+		while(true) {
+			NfFrame frame = stack.peek();
+
+			if(result != null) {
+				frame.args[frame.next++] = result;
+				result = null;
+			}
+
+			if(frame.next < frame.args.length) {
+				Term arg = frame.hnf.arg(frame.next);
+
+				Term nf = arg.normalform ? arg : nfs.get(arg);
+
+				if(nf != null) {
+					result = nf;
+				} else {
+					stack.push(new NfFrame(arg, hnf(arg, hnfs)));
+				}
+
+				continue;
+			}
+
+			// all args are normalforms. Since the root of hnf cannot be reduced anymore, this is a normalform.
+			stack.pop();
+
+			Term nf = frame.args.length == 0 ? frame.hnf : frame.hnf.copy(frame.hnf.parent, Arrays.asList(frame.args));
+
+			nf.normalform = true;
+
+			nfs.put(frame.origin, nf);
+			nfs.put(frame.hnf, nf);
+
+			if(stack.isEmpty()) return nf;
+
+			result = nf;
+		}
+	}
+
+	private static final class HnfFrame {
+		Term term;
+		Node node;
+
+		// all terms that were reduced in this frame. They all have the same head normalform.
+		final ArrayList<Term> visited = new ArrayList<>();
+	}
+
+	/**
+	 * Reduces t to head normal form.
+	 * @param hnfs head normalforms that were already computed.
+	 */
+	private Term hnf(Term t, IdentityHashMap<Term, Term> hnfs) {
+		if(tree(t) == null) return t;
+
+		Term known = hnfs.get(t);
+
+		if(known != null) return known;
+
+		// terms that are currently reduced. If one of them is needed again, there is a cycle.
+		Set<Term> active = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		ArrayDeque<HnfFrame> stack = new ArrayDeque<>();
+		push(stack, t, active);
+
+		Term result = null;
+
+		while(true) {
+			HnfFrame frame = stack.peek();
+
+			Node node = frame.node;
+
+			Term next = null; // reduct of frame.term
+			boolean stuck = false;
+
+			if(result != null) {
+				// the subterm at the position inspected by the branch is in head normal form.
+				Branch branch = (Branch) node;
+				Term h = result;
+				result = null;
+
+				if(at(frame.term, branch.path) != h) {
+					Term u = replace(frame.term, branch.path, h);
+
+					if(active.contains(u)) throw new CycleException(u);
+
+					known = hnfs.get(u);
+
+					if(known != null) {
+						result = finish(stack, hnfs, active, known);
+						if(stack.isEmpty()) return result;
+						continue;
+					}
+
+					frame.term = u;
+					frame.visited.add(u);
+					active.add(u);
+				}
+
+				Node child = h instanceof Fun ? branch.children.get(((Fun) h).symbol()) : null;
+
+				if(child == null) {
+					// no rule is applicable.
+					stuck = true;
+				} else {
+					frame.node = child;
+					continue;
+				}
+			} else if(node instanceof Branch) {
+				Term sub = at(frame.term, ((Branch) node).path);
+
+				if(tree(sub) == null) {
+					result = sub;
+				} else if((known = hnfs.get(sub)) != null) {
+					result = known;
+				} else {
+					if(active.contains(sub)) throw new CycleException(sub);
+					push(stack, sub, active);
+				}
+
+				continue;
+			} else if(node instanceof Leaf) {
+				// the rule of the leaf is the first rule of trs that matches, hence fn applies it.
+				next = fn != null ? fn.apply(frame.term, frame.term.parent)
+						: ((Leaf) node).rule.apply(frame.term, frame.term.parent);
+				stuck = next == null; // cannot happen for left-linear rules.
+			} else {
+				// strict: normalize all args, then try all rules.
+				TermFn strict = fn != null ? fn : trs;
+				Term u = frame.term;
+				Term[] args = new Term[u.arity()];
+				boolean changed = false;
+
+				for(int i = 0; i < args.length; ++i) {
+					args[i] = u.arg(i).normalize(strict);
+					if(args[i] != u.arg(i)) changed = true;
+				}
+
+				if(changed) {
+					u = u.copy(u.parent, Arrays.asList(args));
+					frame.term = u;
+					frame.visited.add(u);
+					active.add(u);
+				}
+
+				next = strict.apply(u, u.parent);
+				stuck = next == null;
+			}
+
+			if(!stuck) {
+				if(next == frame.term || active.contains(next)) throw new CycleException(next);
+
+				known = hnfs.get(next);
+
+				if(known == null && tree(next) != null) {
+					// continue reducing the reduct in the same frame.
+					frame.term = next;
+					frame.node = tree(next);
+					frame.visited.add(next);
+					active.add(next);
+					continue;
+				}
+
+				result = finish(stack, hnfs, active, known != null ? known : next);
+			} else {
+				result = finish(stack, hnfs, active, frame.term);
+			}
+
+			if(stack.isEmpty()) return result;
+		}
+	}
+
+	private void push(ArrayDeque<HnfFrame> stack, Term t, Set<Term> active) {
+		HnfFrame frame = new HnfFrame();
+		frame.term = t;
+		frame.node = tree(t);
+		frame.visited.add(t);
+		active.add(t);
+		stack.push(frame);
+	}
+
+	private static Term finish(ArrayDeque<HnfFrame> stack, IdentityHashMap<Term, Term> hnfs, Set<Term> active, Term hnf) {
+		HnfFrame frame = stack.pop();
+
+		for(Term t : frame.visited) {
+			hnfs.put(t, hnf);
+			active.remove(t);
+		}
+
+		return hnf;
+	}
+
+	/**
+	 * Replaces the subterm at path in t by u.
+	 */
+	private static Term replace(Term t, int[] path, Term u) {
+		Term[] spine = new Term[path.length];
+
+		for(int i = 0; i < path.length; ++i) {
+			spine[i] = t;
+			t = t.arg(path[i]);
+		}
+
+		for(int i = path.length - 1; i >= 0; --i) {
+			u = spine[i].replace(path[i], u);
+		}
+
+		return u;
+	}
+
+	public String toString() {
+		return "outermost-needed\n" + trs;
+	}
+}
@@ -21,21 +21,40 @@ public class RewriteRule {
 	}
 
 	/**
-	 * Applies this rule to t, inserting a reduct into the termqueue in target.
+	 * Applies this rule to t, inserting a reduct into the termqueue in target. The rule
+	 * itself is not modified, hence it can be applied by several threads at once.
 	 * @param t the term to be rewritten
 	 * @param target if null, then a new termqueue is created.
 	 * @return null if not applicable
 	 */
 	public Term apply(Term t, TermList target) {
-		if(lhs.match(t)) {
-			Term reduct = target.insert(rhs);
-			lhs.unmatch();
-			return reduct;
+		Substitution sigma = new Substitution(list);
+
+		if(lhs.match(t, sigma)) {
+			return rhs.instantiate(sigma, target);
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Inserts the rhs of this rule into target where the variables of the lhs are replaced by
+	 * the given terms. This is used if the matcher was found in some other way than by lhs.match.
+	 * @param vars variables of the lhs
+	 * @param binding terms for vars. They must be in target.
+	 * @param target
+	 * @return the reduct
+	 */
+	public Term instantiate(Var[] vars, Term[] binding, TermList target) {
+		Substitution sigma = new Substitution(list);
+
+		for(int i = 0; i < vars.length; ++i) {
+			sigma.bind(vars[i], binding[i]);
+		}
+
+		return rhs.instantiate(sigma, target);
+	}
+
 	public String toString() {
 		return lhs + " -> " + rhs;
 	}
@@ -0,0 +1,107 @@
+package at.searles.terms.rules;
+
+import at.searles.terms.Fun;
+import at.searles.terms.Term;
+import at.searles.terms.TermFn;
+import at.searles.terms.Var;
+
+import java.util.*;
+
+/**
+ * Helper for rule systems that remember at the root of terms which rules failed (see Term.failures).
+ * If the args of a term are replaced, a rule that failed still fails unless it can see one of the
+ * replaced args. A rule sees an argument position if its lhs is not a variable there,
+ * or if it is a variable that also occurs somewhere else in the lhs or in a condition.
+ */
+final class RootFailures {
+
+	// for each argument position, the rules that see it.
+	private final BitSet[] sees;
+
+	/**
+	 * @param lhss left hand sides of the rules
+	 * @param conditions for each rule, the terms of its conditions.
+	 */
+	RootFailures(List<Term> lhss, List<List<Term>> conditions) {
+		int maxArity = 0;
+
+		for(Term lhs : lhss) {
+			maxArity = Math.max(maxArity, lhs.arity());
+		}
+
+		this.sees = new BitSet[maxArity];
+
+		for(int i = 0; i < maxArity; ++i) {
+			sees[i] = new BitSet(lhss.size());
+		}
+
+		for(int rule = 0; rule < lhss.size(); ++rule) {
+			Term lhs = lhss.get(rule);
+
+			// count occurrences of variables
+			IdentityHashMap<Term, Integer> counts = new IdentityHashMap<>();
+
+			count(lhs, counts);
+
+			for(Term c : conditions.get(rule)) {
+				// occurrences in conditions always count as further occurrences.
+				count(c, counts);
+				count(c, counts);
+			}
+
+			for(int i = 0; i < lhs.arity(); ++i) {
+				Term arg = lhs.arg(i);
+
+				if(!(arg instanceof Var) || counts.get(arg) > 1) {
+					sees[i].set(rule);
+				}
+			}
+		}
+	}
+
+	private static void count(Term t, IdentityHashMap<Term, Integer> counts) {
+		ArrayDeque<Term> stack = new ArrayDeque<>();
+		stack.push(t);
+
+		while(!stack.isEmpty()) {
+			Term u = stack.pop();
+
+			if(u instanceof Var) {
+				counts.merge(u, 1, Integer::sum);
+			}
+
+			for(int i = 0; i < u.arity(); ++i) {
+				stack.push(u.arg(i));
+			}
+		}
+	}
+
+	/**
+	 * Transfers the failures of fn from 'from' to 'to' that do not depend on replaced args.
+	 */
+	void transfer(TermFn fn, Term from, Term to) {
+		BitSet failed = from.failures(fn);
+
+		if(failed == null || from == to || from.getClass() != to.getClass() || from.arity() != to.arity()) return;
+
+		if(from instanceof Fun && ((Fun) from).symbol() != ((Fun) to).symbol()) return;
+
+		BitSet remaining = (BitSet) failed.clone();
+
+		for(int i = 0; i < from.arity() && i < sees.length; ++i) {
+			if(from.arg(i) != to.arg(i)) {
+				remaining.andNot(sees[i]);
+			}
+		}
+
+		if(remaining.isEmpty()) return;
+
+		BitSet known = to.failures(fn);
+
+		if(known != null) {
+			remaining.or(known);
+		}
+
+		to.setFailures(fn, remaining);
+	}
+}
@@ -3,16 +3,25 @@ package at.searles.terms.rules;
 import at.searles.parsing.parser.Buffer;
 import at.searles.parsing.parser.Parser;
 import at.searles.parsing.regex.Lexer;
+import at.searles.terms.App;
+import at.searles.terms.Const;
 import at.searles.terms.CycleException;
+import at.searles.terms.Fun;
+import at.searles.terms.RewriteListener;
 import at.searles.terms.Term;
 import at.searles.terms.TermFn;
 import at.searles.terms.TermList;
+import at.searles.terms.TermStore;
+import at.searles.terms.Var;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.function.Function;
 
-public class TRS implements TermFn {
+public class TRS implements TermFn, TermStore.HandleFn {
 
 	public static class TRSParser extends Parser<TRS> {
 
@@ -36,10 +45,50 @@ public class TRS implements TermFn {
 	}
 
 	private final List<RewriteRule> rules;
+	private final MatchingAutomaton automaton;
+	private final RootFailures failures;
+
+	// rules that can be applied on the handles of a TermStore.
+	private final BitSet onHandles = new BitSet();
+
+	private RewriteListener listener = null;
 
 	public TRS(List<RewriteRule> rules) {
-		this.rules = new LinkedList<>();
-		this.rules.addAll(rules);
+		this.rules = new ArrayList<>(rules);
+
+		List<Term> lhss = new ArrayList<>(rules.size());
+
+		for(RewriteRule r : rules) {
+			lhss.add(r.lhs);
+		}
+
+		this.automaton = new MatchingAutomaton(lhss);
+		this.failures = new RootFailures(lhss, Collections.nCopies(lhss.size(), Collections.<Term>emptyList()));
+
+		for(int i = 0; i < rules.size(); ++i) {
+			if(automaton.isCompiled(i) && isFirstOrder(rules.get(i).rhs)) onHandles.set(i);
+		}
+	}
+
+	/**
+	 * @return the rules in order of declaration.
+	 */
+	public List<RewriteRule> rules() {
+		return Collections.unmodifiableList(rules);
+	}
+
+	/**
+	 * Sets the listener that receives the events of this TRS and of normalizations with it.
+	 * It must be set before the TRS is used.
+	 * @param listener null to disable events.
+	 */
+	public void setListener(RewriteListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public RewriteListener listener() {
+		return listener;
 	}
 
 	/**
@@ -53,18 +102,53 @@ public class TRS implements TermFn {
 		// If t cannot be reduced
 		CycleException ex = null;
 
-		for(RewriteRule r : rules) {
+		// rules that are known to fail at t, and the ones that failed now.
+		BitSet known = t.failures(this);
+		BitSet failed = null;
+
+		// the automaton returns all matching rules in order of declaration.
+		for(int i : automaton.match(t)) {
+			if(known != null && known.get(i)) continue;
+
+			long start = listener != null ? System.nanoTime() : 0;
+
 			try {
-				Term u = r.apply(t, target);
+				Term u;
+
+				if(automaton.isCompiled(i)) {
+					Term[] binding = automaton.bindings(i, t);
+
+					if(binding == null) {
+						// non-linear lhs did not match
+						if(listener != null) listener.ruleTried(this, i, t, false, System.nanoTime() - start);
+
+						if(failed == null) failed = known != null ? (BitSet) known.clone() : new BitSet();
+						failed.set(i);
+						continue;
+					}
+
+					u = rules.get(i).instantiate(automaton.variables(i), binding, target);
+				} else {
+					u = rules.get(i).apply(t, target);
+				}
+
+				if(listener != null) listener.ruleTried(this, i, t, u != null, System.nanoTime() - start);
+
 				if (u != null) {
 					return u;
 				}
+
+				if(failed == null) failed = known != null ? (BitSet) known.clone() : new BitSet();
+				failed.set(i);
 			} catch(CycleException c) {
 				// If a rule leads to a cycle, try another rule. Maybe we will find a normalform.
+				if(listener != null) listener.cycleCaught(this, i, t, c);
 				ex = c;
 			}
 		}
 
+		if(failed != null) t.setFailures(this, failed);
+
 		// there were only cycles?
 		if(ex != null) throw ex;
 
@@ -72,6 +156,68 @@ public class TRS implements TermFn {
 		return null;
 	}
 
+	private static boolean isFirstOrder(Term t) {
+		IdentityHashMap<Term, Term> visited = new IdentityHashMap<>();
+		ArrayList<Term> stack = new ArrayList<>();
+
+		stack.add(t);
+
+		while(!stack.isEmpty()) {
+			Term u = stack.remove(stack.size() - 1);
+
+			if(visited.put(u, u) != null) continue;
+
+			if(!(u instanceof Fun || u instanceof App || u instanceof Var || u instanceof Const)) return false;
+
+			for(int i = 0; i < u.arity(); ++i) stack.add(u.arg(i));
+		}
+
+		return true;
+	}
+
+	/**
+	 * Applies this rewrite system to the node h of a store. Rules whose lhs is compiled in the
+	 * automaton and whose rhs is first order are matched and instantiated on handles. Other rules
+	 * are applied to terms that are materialized for this call. Neither the listener nor the
+	 * memo of failed rules are used.
+	 * @return the handle of the reduct or -1 if h is irreducible.
+	 */
+	@Override
+	public int apply(TermStore store, int h) {
+		CycleException ex = null;
+
+		TermStore.View view = null; // created on demand
+
+		for(int i : automaton.match(store, h)) {
+			try {
+				if(onHandles.get(i)) {
+					int[] binding = automaton.bindings(i, store, h);
+
+					if(binding != null) {
+						return store.instantiate(rules.get(i).rhs, automaton.variables(i), binding);
+					}
+				} else {
+					if(view == null) view = store.view();
+
+					Term u = rules.get(i).apply(view.get(h), view.list);
+
+					if(u != null) return view.put(u);
+				}
+			} catch(CycleException c) {
+				ex = c;
+			}
+		}
+
+		if(ex != null) throw ex;
+
+		return -1;
+	}
+
+	@Override
+	public void rebuilt(Term from, Term to) {
+		failures.transfer(this, from, to);
+	}
+
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 